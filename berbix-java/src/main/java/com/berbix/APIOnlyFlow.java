@@ -0,0 +1,259 @@
+package com.berbix;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+// APIOnlyFlow drives API-only transactions from creation through image uploads to the final fetch,
+// following UploadImagesResponse.nextStep. Any number of flows may run at once; the HTTP calls of
+// all of them share one concurrency budget. Images are loaded on the given executor, since ImageProviders
+// may block. The front of the document is loaded while the transaction is being created. A provider that
+// opts in with prefetchNextStep() also has the images of the step expected next loaded and encoded while
+// each upload is in flight; they are thrown away if the API asks for a different step. Cancelling the
+// outcome cancels the calls and image loads still running.
+public class APIOnlyFlow {
+    // Guards against a server that keeps asking for more uploads without reporting issues.
+    private static final int MAX_UPLOADS = 10;
+
+    private final BerbixClient client;
+    private final AsyncLimiter limiter;
+    private final Executor imageExecutor;
+
+    public APIOnlyFlow(BerbixClient client, int maxConcurrentRequests, Executor imageExecutor) {
+        if (imageExecutor == null) {
+            throw new IllegalArgumentException("imageExecutor is required");
+        }
+        this.client = client;
+        this.limiter = new AsyncLimiter(maxConcurrentRequests);
+        this.imageExecutor = imageExecutor;
+    }
+
+    public interface ImageProvider {
+        // images returns the images to upload for the given UploadImagesResponse.NextStep* value,
+        // or an empty list if none are available. It is called on the flow's image executor.
+        List<UploadImagesRequest.ImageData> images(String nextStep) throws IOException;
+
+        // prefetchNextStep opts in to loading the images of the step usually expected next (the back of the
+        // document after the front, the selfie after the back) while the current upload is in flight. The
+        // load is wasted when the API asks for something else, e.g. for a passport, which has no back.
+        default boolean prefetchNextStep() {
+            return false;
+        }
+    }
+
+    public enum Status {
+        // COMPLETED means every requested image was accepted and the transaction was fetched.
+        COMPLETED,
+        // ISSUES means an upload was rejected; see Outcome.issues.
+        ISSUES,
+        // MISSING_IMAGES means the ImageProvider had no images for Outcome.nextStep.
+        MISSING_IMAGES,
+    }
+
+    public enum Issue {
+        BAD_UPLOAD(UploadImagesResponse.IssueBadUpload),
+        TEXT_UNREADABLE(UploadImagesResponse.IssueTextUnreadable),
+        NO_FACE_ON_ID_DETECTED(UploadImagesResponse.IssueNoFaceOnIDDetected),
+        INCOMPLETE_BARCODE_DETECTED(UploadImagesResponse.IssueIncompleteBarcodeDetected),
+        UNSUPPORTED_ID_TYPE(UploadImagesResponse.IssueUnsupportedIDType),
+        BAD_SELFIE(UploadImagesResponse.IssueBadSelfie),
+        UNKNOWN(null);
+
+        final String value;
+
+        Issue(String value) {
+            this.value = value;
+        }
+
+        static Issue fromValue(String value) {
+            for (Issue issue : values()) {
+                if (issue.value != null && issue.value.equals(value)) {
+                    return issue;
+                }
+            }
+            return UNKNOWN;
+        }
+    }
+
+    public static class Outcome {
+        public final Status status;
+        public final Tokens tokens;
+        // nextStep is the step the flow stopped at, or UploadImagesResponse.NextStepDone when completed.
+        public final String nextStep;
+        public final List<Issue> issues;
+        // lastUploadResponse is the response of the last upload, including the raw issues and their details.
+        public final UploadImagesResponse lastUploadResponse;
+        public final Transaction transaction;
+
+        Outcome(Status status, Tokens tokens, String nextStep, List<Issue> issues, UploadImagesResponse lastUploadResponse, Transaction transaction) {
+            this.status = status;
+            this.tokens = tokens;
+            this.nextStep = nextStep;
+            this.issues = issues;
+            this.lastUploadResponse = lastUploadResponse;
+            this.transaction = transaction;
+        }
+    }
+
+    public static UploadImagesRequest.ImageData imageData(String imageSubject, String format, byte[] image) {
+        UploadImagesRequest.ImageData imageData = new UploadImagesRequest.ImageData();
+        imageData.data = Base64.getEncoder().encodeToString(image);
+        imageData.imageSubject = imageSubject;
+        imageData.format = format;
+        return imageData;
+    }
+
+    public CompletableFuture<Outcome> run(CreateAPIOnlyTransactionRequest request, ImageProvider imageProvider) {
+        Run run = new Run(imageProvider);
+        // Start loading the front of the document while the transaction is being created.
+        run.prefetch(UploadImagesResponse.NextStepUploadDocumentFront);
+
+        CompletableFuture<Outcome> outcome = run.call(() -> client.createAPIOnlyTransactionAsync(request))
+                .thenCompose(response -> run.step(response.tokens, UploadImagesResponse.NextStepUploadDocumentFront, null, 0));
+        outcome.whenComplete((result, ex) -> {
+            if (ex instanceof CancellationException) {
+                run.cancel();
+            } else {
+                run.discardPrefetched();
+            }
+        });
+        return outcome;
+    }
+
+    private static String expectedStepAfter(String nextStep) {
+        switch (nextStep) {
+            case UploadImagesResponse.NextStepUploadDocumentFront:
+                return UploadImagesResponse.NextStepUploadDocumentBack;
+            case UploadImagesResponse.NextStepUploadDocumentBack:
+                return UploadImagesResponse.NextStepUploadSelfieBasic;
+            default:
+                return null;
+        }
+    }
+
+    private class Run {
+        private final ImageProvider imageProvider;
+        private final Map<String, CompletableFuture<List<UploadImagesRequest.ImageData>>> prefetched = new HashMap<>();
+        // The calls and image loads of this run that have not completed yet, to cancel with the outcome.
+        private final Set<CompletableFuture<?>> running = new HashSet<>();
+        private boolean cancelled;
+
+        Run(ImageProvider imageProvider) {
+            this.imageProvider = imageProvider;
+        }
+
+        CompletableFuture<Outcome> step(Tokens tokens, String nextStep, UploadImagesResponse lastUploadResponse, int uploads) {
+            if (nextStep == null || UploadImagesResponse.NextStepDone.equals(nextStep)) {
+                return call(() -> client.fetchTransactionAsync(tokens))
+                        .thenApply(transaction -> new Outcome(Status.COMPLETED, tokens, UploadImagesResponse.NextStepDone,
+                                Collections.emptyList(), lastUploadResponse, transaction));
+            }
+
+            if (uploads >= MAX_UPLOADS) {
+                CompletableFuture<Outcome> future = new CompletableFuture<>();
+                future.completeExceptionally(new BerbixException("Too many uploads requested for transaction " + tokens.transactionId));
+                return future;
+            }
+
+            return images(nextStep).thenCompose(images -> {
+                if (images == null || images.isEmpty()) {
+                    return CompletableFuture.completedFuture(new Outcome(Status.MISSING_IMAGES, tokens, nextStep,
+                            Collections.emptyList(), lastUploadResponse, null));
+                }
+
+                String expectedStep = imageProvider.prefetchNextStep() ? expectedStepAfter(nextStep) : null;
+                if (expectedStep != null) {
+                    prefetch(expectedStep);
+                }
+
+                UploadImagesRequest uploadImagesRequest = new UploadImagesRequest();
+                uploadImagesRequest.images = images;
+
+                return call(() -> client.uploadImagesAsync(tokens.clientToken, uploadImagesRequest))
+                        .thenCompose(response -> {
+                            if (response.issues != null && response.issues.length > 0) {
+                                List<Issue> issues = new ArrayList<>(response.issues.length);
+                                for (String issue : response.issues) {
+                                    issues.add(Issue.fromValue(issue));
+                                }
+                                return CompletableFuture.completedFuture(new Outcome(Status.ISSUES, tokens, response.nextStep,
+                                        Collections.unmodifiableList(issues), response, null));
+                            }
+
+                            return step(tokens, response.nextStep, response, uploads + 1);
+                        });
+            });
+        }
+
+        // call runs an API call within the flow's concurrency limit, and tracks both the queued call and the call itself.
+        <T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> call) {
+            return track(limiter.submit(() -> track(call.get())));
+        }
+
+        synchronized <T> CompletableFuture<T> track(CompletableFuture<T> future) {
+            if (cancelled) {
+                future.cancel(true);
+                return future;
+            }
+            running.add(future);
+            future.whenComplete((result, ex) -> untrack(future));
+            return future;
+        }
+
+        void cancel() {
+            List<CompletableFuture<?>> toCancel;
+            synchronized (this) {
+                cancelled = true;
+                toCancel = new ArrayList<>(running);
+                running.clear();
+            }
+            for (CompletableFuture<?> future : toCancel) {
+                future.cancel(true);
+            }
+            discardPrefetched();
+        }
+
+        private synchronized void untrack(CompletableFuture<?> future) {
+            running.remove(future);
+        }
+
+        synchronized void prefetch(String nextStep) {
+            if (!prefetched.containsKey(nextStep)) {
+                prefetched.put(nextStep, load(nextStep));
+            }
+        }
+
+        synchronized void discardPrefetched() {
+            for (CompletableFuture<List<UploadImagesRequest.ImageData>> images : prefetched.values()) {
+                images.cancel(false);
+            }
+            prefetched.clear();
+        }
+
+        private synchronized CompletableFuture<List<UploadImagesRequest.ImageData>> images(String nextStep) {
+            CompletableFuture<List<UploadImagesRequest.ImageData>> images = prefetched.remove(nextStep);
+            return images != null ? images : load(nextStep);
+        }
+
+        private CompletableFuture<List<UploadImagesRequest.ImageData>> load(String nextStep) {
+            return track(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return imageProvider.images(nextStep);
+                } catch (IOException e) {
+                    throw new CompletionException(new BerbixException("Unable to load images for " + nextStep, e));
+                }
+            }, imageExecutor));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.berbix;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+// AsyncLimiter caps the number of concurrently running asynchronous tasks without blocking callers.
+// Tasks submitted above the limit are queued and started as running tasks complete.
+class AsyncLimiter {
+    private final int limit;
+    private final ArrayDeque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+    private int running;
+
+    AsyncLimiter(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be at least 1");
+        }
+        this.limit = limit;
+    }
+
+    <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> task) {
+        CompletableFuture<Void> permit = acquire();
+        AtomicBoolean started = new AtomicBoolean();
+        CompletableFuture<T> result = permit.thenCompose(ignored -> {
+            if (!started.compareAndSet(false, true)) {
+                // The result was cancelled first, and has already given the permit back.
+                CompletableFuture<T> cancelled = new CompletableFuture<>();
+                cancelled.cancel(false);
+                return cancelled;
+            }
+            CompletableFuture<T> future;
+            try {
+                future = task.get();
+            } catch (Throwable t) {
+                release();
+                throw t;
+            }
+            future.whenComplete((value, ex) -> release());
+            return future;
+        });
+
+        // A result cancelled before its task starts never runs the task, so it has to leave the queue, or give back
+        // the permit it was granted, itself.
+        result.whenComplete((value, ex) -> {
+            if (!(ex instanceof CancellationException)) {
+                return;
+            }
+            if (permit.cancel(false)) {
+                synchronized (this) {
+                    waiters.remove(permit);
+                }
+            } else if (started.compareAndSet(false, true)) {
+                release();
+            }
+        });
+        return result;
+    }
+
+    int limit() {
+        return limit;
+    }
+
+    synchronized int running() {
+        return running;
+    }
+
+    synchronized int queued() {
+        return waiters.size();
+    }
+
+    private CompletableFuture<Void> acquire() {
+        synchronized (this) {
+            if (running < limit) {
+                running++;
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+            return waiter;
+        }
+    }
+
+    private void release() {
+        while (true) {
+            CompletableFuture<Void> next;
+            synchronized (this) {
+                next = waiters.poll();
+                if (next == null) {
+                    running--;
+                    return;
+                }
+            }
+            // The permit is handed straight to the next waiter; a waiter that was already
+            // completed elsewhere passes it on to the one behind it.
+            if (next.complete(null)) {
+                return;
+            }
+        }
+    }
+}
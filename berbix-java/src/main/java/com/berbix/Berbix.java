@@ -1,9 +1,15 @@
 package com.berbix;
 
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 public class Berbix {
 
   static final String BERBIX_SDK_VERSION = "1.0-SNAPSHOT";
   private static final String DEFAULT_API_HOST = "https://api.berbix.com";
+  private static final long DEFAULT_TOKEN_REFRESH_SKEW_MILLIS = 10000;
+  static final int DEFAULT_WARM_UP_CONNECTIONS = 4;
 
   public static BerbixClient create(BerbixOptions options) {
     return new BerbixClient(options);
@@ -12,19 +18,61 @@ public class Berbix {
   public static class BerbixOptions {
     String apiSecret;
     String apiHost;
+    RequestCompression requestCompression;
+    HedgingPolicy hedgingPolicy;
+    long tokenRefreshSkewMillis = DEFAULT_TOKEN_REFRESH_SKEW_MILLIS;
+    boolean captureApiErrorStackTraces = true;
+    int warmUpConnections;
+    boolean coalesceFetches;
+    Map<BerbixEndpoint, TimeoutPolicy> timeoutPolicies = new EnumMap<>(BerbixEndpoint.class);
+    TimeoutListener timeoutListener;
+    boolean compactDecoding;
 
     public BerbixOptions(String apiSecret, String apiHost) {
       this.apiSecret = apiSecret;
       this.apiHost = apiHost;
     }
 
+    BerbixOptions withApiSecret(String apiSecret) {
+      BerbixOptions options = new BerbixOptions(apiSecret, apiHost);
+      options.requestCompression = requestCompression;
+      options.hedgingPolicy = hedgingPolicy;
+      options.tokenRefreshSkewMillis = tokenRefreshSkewMillis;
+      options.captureApiErrorStackTraces = captureApiErrorStackTraces;
+      options.warmUpConnections = warmUpConnections;
+      options.coalesceFetches = coalesceFetches;
+      options.timeoutPolicies = new EnumMap<>(timeoutPolicies);
+      options.timeoutListener = timeoutListener;
+      options.compactDecoding = compactDecoding;
+      return options;
+    }
+
     public static class Builder {
 
       private String apiHost = DEFAULT_API_HOST;
       private String apiSecret;
+      private RequestCompression requestCompression;
+      private HedgingPolicy hedgingPolicy;
+      private long tokenRefreshSkewMillis = DEFAULT_TOKEN_REFRESH_SKEW_MILLIS;
+      private boolean captureApiErrorStackTraces = true;
+      private int warmUpConnections;
+      private boolean coalesceFetches;
+      private final Map<BerbixEndpoint, TimeoutPolicy> timeoutPolicies = new EnumMap<>(BerbixEndpoint.class);
+      private TimeoutListener timeoutListener;
+      private boolean compactDecoding;
 
       public BerbixOptions build() {
-        return new BerbixOptions(apiSecret, apiHost);
+        BerbixOptions options = new BerbixOptions(apiSecret, apiHost);
+        options.requestCompression = requestCompression;
+        options.hedgingPolicy = hedgingPolicy;
+        options.tokenRefreshSkewMillis = tokenRefreshSkewMillis;
+        options.captureApiErrorStackTraces = captureApiErrorStackTraces;
+        options.warmUpConnections = warmUpConnections;
+        options.coalesceFetches = coalesceFetches;
+        options.timeoutPolicies = new EnumMap<>(timeoutPolicies);
+        options.timeoutListener = timeoutListener;
+        options.compactDecoding = compactDecoding;
+        return options;
       }
 
       public Builder apiSecret(String apiSecret) {
@@ -36,6 +84,72 @@ public class Berbix {
         this.apiHost = apiHost;
         return this;
       }
+
+      // requestCompression enables encoding of request bodies at or above the configured size.
+      // Disabled by default; if the server rejects an encoded body, requests are resent as plain JSON.
+      public Builder requestCompression(RequestCompression requestCompression) {
+        this.requestCompression = requestCompression;
+        return this;
+      }
+
+      // hedgingPolicy enables hedged reads for fetchTransaction. Disabled by default.
+      public Builder hedgingPolicy(HedgingPolicy hedgingPolicy) {
+        this.hedgingPolicy = hedgingPolicy;
+        return this;
+      }
+
+      // tokenRefreshSkew refreshes tokens this long before they expire, so they do not expire mid-request.
+      public Builder tokenRefreshSkew(long skew, TimeUnit unit) {
+        if (skew < 0) {
+          throw new IllegalArgumentException("skew must not be negative");
+        }
+        this.tokenRefreshSkewMillis = unit.toMillis(skew);
+        return this;
+      }
+
+      // captureApiErrorStackTraces can be turned off to skip filling in stack traces of BerbixApiExceptions,
+      // which describe an API response rather than a fault in the caller's code.
+      public Builder captureApiErrorStackTraces(boolean captureApiErrorStackTraces) {
+        this.captureApiErrorStackTraces = captureApiErrorStackTraces;
+        return this;
+      }
+
+      // warmUpOnCreate starts BerbixClient.warmUp as soon as the client is created, opening up to this many
+      // connections, at most 5.
+      public Builder warmUpOnCreate(int connections) {
+        if (connections < 1 || connections > ClientWarmUp.MAX_CONNECTIONS) {
+          throw new IllegalArgumentException("connections must be between 1 and " + ClientWarmUp.MAX_CONNECTIONS);
+        }
+        this.warmUpConnections = connections;
+        return this;
+      }
+
+      // coalesceFetches shares one request between concurrent fetchTransaction calls for the same transaction.
+      // Disabled by default. Calls with their own CallOptions timeout are never shared, and all but one caller of a
+      // shared request get their own copy of the transaction.
+      public Builder coalesceFetches(boolean coalesceFetches) {
+        this.coalesceFetches = coalesceFetches;
+        return this;
+      }
+
+      // timeoutPolicy sets how long requests to an endpoint may take. Endpoints without a policy time out after 30s.
+      public Builder timeoutPolicy(BerbixEndpoint endpoint, TimeoutPolicy policy) {
+        this.timeoutPolicies.put(endpoint, policy);
+        return this;
+      }
+
+      // timeoutListener is told about every request that times out.
+      public Builder timeoutListener(TimeoutListener timeoutListener) {
+        this.timeoutListener = timeoutListener;
+        return this;
+      }
+
+      // compactDecoding makes decoded transactions share repeated values, such as confidences, source types and
+      // flags, to cut the memory held by transactions kept around. Disabled by default.
+      public Builder compactDecoding(boolean compactDecoding) {
+        this.compactDecoding = compactDecoding;
+        return this;
+      }
     }
   }
 }
@@ -1,12 +1,15 @@
 package com.berbix;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.PropertyNamingStrategies;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
@@ -14,36 +17,88 @@ import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Callback;
 import okhttp3.Call;
+import okhttp3.HttpUrl;
 import okhttp3.Request.Builder;
 import okhttp3.RequestBody;
 import okhttp3.Request;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 public class BerbixApi {
 
-    private static final int REQUEST_TIMEOUT_MILLIS = 30000;
+    static final int REQUEST_TIMEOUT_MILLIS = 30000;
     private final String apiSecret;
     private final String apiHost;
+    private final BerbixTransport transport;
+    private final boolean ownsTransport;
+    private final TenantQuota quota;
     private final OkHttpClient okHttpClient;
+    private final RequestHedger requestHedger;
+    private final EndpointTimeouts endpointTimeouts;
+    private final long tokenRefreshSkewNanos;
+    private final boolean captureApiErrorStackTraces;
+    private final Coalescer<Object, Transaction> fetchCoalescer;
 
     private final ObjectMapper objectMapper;
 
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // The futures of this BerbixApi's own calls, to cancel on shutdown even when the transport is shared.
+    private final Set<CompletableFuture<?>> running = ConcurrentHashMap.newKeySet();
+    private final CompletableFuture<Void> drained = new CompletableFuture<>();
+    private volatile boolean closed;
+    private volatile CompletableFuture<Void> warmUp;
+
     public static final MediaType MEDIA_TYPE_JSON
             = MediaType.parse("application/json; charset=utf-8");
 
     public BerbixApi(String apiSecret, String apiHost) {
-        this.apiSecret = apiSecret;
-        this.apiHost = apiHost;
-        this.objectMapper = new ObjectMapper();
+        this(new Berbix.BerbixOptions(apiSecret, apiHost));
+    }
+
+    public BerbixApi(Berbix.BerbixOptions options) {
+        this(options, new BerbixTransport(options), true, null);
+    }
+
+    // A BerbixApi that does not own its transport leaves it running on shutdown, for the other users sharing it.
+    BerbixApi(Berbix.BerbixOptions options, BerbixTransport transport, boolean ownsTransport, TenantQuota quota) {
+        this.apiSecret = options.apiSecret;
+        this.apiHost = options.apiHost;
+        this.tokenRefreshSkewNanos = TimeUnit.MILLISECONDS.toNanos(options.tokenRefreshSkewMillis);
+        this.captureApiErrorStackTraces = options.captureApiErrorStackTraces;
+        this.fetchCoalescer = options.coalesceFetches ? new Coalescer<>(Transaction::copy) : null;
+        this.transport = transport;
+        this.ownsTransport = ownsTransport;
+        this.quota = quota;
+        this.objectMapper = transport.objectMapper;
+        this.okHttpClient = transport.okHttpClient;
+        this.requestHedger = transport.requestHedger;
+        this.endpointTimeouts = transport.endpointTimeouts;
+    }
+
+    static ObjectMapper createObjectMapper() {
+        return createObjectMapper(false);
+    }
+
+    static ObjectMapper createObjectMapper(boolean compactDecoding) {
+        ObjectMapper objectMapper = new ObjectMapper();
         objectMapper.setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
         objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
         objectMapper.registerModule(new JavaTimeModule());
@@ -54,19 +109,235 @@ public class BerbixApi {
                 jgen.writeString(value.value);
             }
         });
+        enumModule.addDeserializer(OverrideTransactionRequest.ResponsePayload.class, new StdDeserializer<OverrideTransactionRequest.ResponsePayload>(OverrideTransactionRequest.ResponsePayload.class) {
+            @Override
+            public OverrideTransactionRequest.ResponsePayload deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+                String value = parser.getValueAsString();
+                for (OverrideTransactionRequest.ResponsePayload payload : OverrideTransactionRequest.ResponsePayload.values()) {
+                    if (payload.value.equals(value)) {
+                        return payload;
+                    }
+                }
+                return (OverrideTransactionRequest.ResponsePayload) context.handleWeirdStringValue(OverrideTransactionRequest.ResponsePayload.class, value, "unknown response payload");
+            }
+        });
         objectMapper.registerModule(enumModule);
-
-        okHttpClient = new OkHttpClient.Builder()
-                .callTimeout(REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
-                .build();
+        if (compactDecoding) {
+            objectMapper.registerModule(new CompactDecoding(CompactDecoding.DEFAULT_CAPACITY).module());
+        }
+        return objectMapper;
     }
 
     void shutdown() {
+        shutdown(REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
 
+    // shutdown stops accepting new calls, waits up to timeout for in-flight calls to finish, then cancels
+    // whatever is left. A BerbixApi that owns its transport then releases the dispatcher threads and pooled
+    // connections; a shared transport is left running for its other users.
+    void shutdown(long timeout, TimeUnit unit) {
+        beginShutdown();
+        awaitShutdown(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    // beginShutdown stops accepting new calls without waiting for the ones in flight.
+    void beginShutdown() {
+        closed = true;
+        if (inFlight.get() == 0) {
+            drained.complete(null);
+        }
+    }
+
+    // awaitShutdown waits until deadlineNanos, on the System.nanoTime() clock, for in-flight calls to finish,
+    // then cancels whatever is left and releases the transport if this BerbixApi owns it.
+    void awaitShutdown(long deadlineNanos) {
+        try {
+            drained.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // Calls still running past the deadline are cancelled below.
+        }
+
+        for (CompletableFuture<?> future : running) {
+            future.cancel(true);
+        }
+        if (ownsTransport) {
+            transport.shutdown();
+        }
+    }
+
+    // warmUp starts warming up the client once; later calls return the same future.
+    CompletableFuture<Void> warmUp(int connections) {
+        if (connections < 1 || connections > ClientWarmUp.MAX_CONNECTIONS) {
+            throw new IllegalArgumentException("connections must be between 1 and " + ClientWarmUp.MAX_CONNECTIONS);
+        }
+        CompletableFuture<Void> current = warmUp;
+        if (current == null) {
+            synchronized (this) {
+                current = warmUp;
+                if (current == null) {
+                    current = ClientWarmUp.run(transport, apiHost, connections);
+                    warmUp = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    ObjectMapper objectMapper() {
+        return objectMapper;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    int inFlightCount() {
+        return inFlight.get();
+    }
+
+    private interface TrackedCall<T, E extends Exception> {
+        CompletableFuture<T> start(CallContext context) throws E;
+    }
+
+    // track runs call with a fresh CallContext. Cancelling the returned future cancels the HTTP calls
+    // made for it, including ones the call has not started yet.
+    private <T, E extends Exception> CompletableFuture<T> track(CallOptions callOptions, TrackedCall<T, E> call) throws E {
+        // Count the call before checking closed, so that shutdown either sees it or it sees shutdown.
+        inFlight.incrementAndGet();
+        if (closed) {
+            release();
+            CompletableFuture<T> completableFuture = new CompletableFuture<>();
+            completableFuture.completeExceptionally(new BerbixException("BerbixClient is closed"));
+            return completableFuture;
+        }
+
+        CallContext context = new CallContext(callOptions.timeoutMillis, callOptions.idempotencyKey);
+        CompletableFuture<T> future;
+        try {
+            future = quota == null ? call.start(context) : startWithinQuota(call, context);
+        } catch (Exception e) {
+            release();
+            throw e;
+        }
+        running.add(future);
+        future.whenComplete((result, ex) -> {
+            running.remove(future);
+            release();
+            if (ex instanceof CancellationException) {
+                context.cancel();
+            }
+        });
+        return future;
+    }
+
+    // executeForBody sends request and reads its whole response body, whatever its status, while the request is
+    // observed, so that a timeout reading the body counts against the endpoint.
+    private CompletableFuture<ReadResponse> executeForBody(Request request, BerbixEndpoint endpoint, CallContext context) {
+        return execute(request, endpoint, context, response -> {
+            try {
+                return new ReadResponse(response, response.body().string());
+            } catch (IOException e) {
+                throw BerbixErrors.wrap("Unable to read response", e);
+            } finally {
+                response.close();
+            }
+        });
+    }
+
+    // ReadResponse is a response whose body has been read and closed. Its status and headers remain available.
+    private static class ReadResponse {
+        final Response response;
+        final String body;
+
+        ReadResponse(Response response, String body) {
+            this.response = response;
+            this.body = body;
+        }
+    }
+
+    // execute sends request and applies reader to its response. The request's latency is observed once reader has
+    // returned, so an endpoint whose response is streamed, like DOWNLOAD_IMAGE, should read the whole body in reader.
+    private <T> CompletableFuture<T> execute(Request request, BerbixEndpoint endpoint, CallContext context, Function<Response, T> reader) {
+        long bodyBytes = bodyBytes(request);
+        long timeoutNanos = endpointTimeouts.timeoutNanos(endpoint, bodyBytes);
+        boolean limitedByTimeout = context.limitedByTimeout(timeoutNanos);
+        long startNanos = System.nanoTime();
+
+        CompletableFuture<Response> response;
+        // Only reads are hedged; sending a write twice could apply it twice.
+        if (requestHedger != null && endpoint == BerbixEndpoint.FETCH_TRANSACTION) {
+            response = requestHedger.execute(request, context, timeoutNanos);
+        } else {
+            OkHttpResponseFuture callback = new OkHttpResponseFuture();
+            response = callback.future;
+            Call call = okHttpClient.newCall(request);
+            try {
+                context.attach(call, timeoutNanos);
+            } catch (IOException e) {
+                // The request was never sent, so there is nothing to observe.
+                CompletableFuture<T> completableFuture = new CompletableFuture<>();
+                completableFuture.completeExceptionally(e);
+                return completableFuture;
+            }
+            call.enqueue(callback);
+        }
+        return endpointTimeouts.observe(endpoint, timeoutNanos, limitedByTimeout, bodyBytes, startNanos, response.thenApply(reader));
+    }
+
+    private static long bodyBytes(Request request) {
+        if (request.body() == null) {
+            return -1;
+        }
+        try {
+            return request.body().contentLength();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private <T, E extends Exception> CompletableFuture<T> startWithinQuota(TrackedCall<T, E> call, CallContext context) throws E {
+        if (quota.queueFull()) {
+            CompletableFuture<T> completableFuture = new CompletableFuture<>();
+            completableFuture.completeExceptionally(new BerbixRateLimitedException(429, "tenant_queue_full",
+                    "Tenant request queue is full", null, null, null, captureApiErrorStackTraces));
+            return completableFuture;
+        }
+        long retryAfterMillis = quota.tryAcquire();
+        if (retryAfterMillis > 0) {
+            CompletableFuture<T> completableFuture = new CompletableFuture<>();
+            completableFuture.completeExceptionally(new BerbixRateLimitedException(429, "tenant_quota_exceeded",
+                    "Tenant request rate quota exceeded", null, null, retryAfterMillis, captureApiErrorStackTraces));
+            return completableFuture;
+        }
+        if (quota.concurrency == null) {
+            return call.start(context);
+        }
+
+        return quota.concurrency.submit(() -> {
+            try {
+                return call.start(context);
+            } catch (Exception e) {
+                CompletableFuture<T> completableFuture = new CompletableFuture<>();
+                completableFuture.completeExceptionally(e);
+                return completableFuture;
+            }
+        });
+    }
+
+    private void release() {
+        if (inFlight.decrementAndGet() == 0 && closed) {
+            drained.complete(null);
+        }
     }
 
     public CompletableFuture<CreateTransactionResponse> createTransactionAsync(CreateTransactionRequest createTransactionRequest) {
-        return fetchTokens("/v0/transactions", createTransactionRequest)
+        return createTransactionAsync(createTransactionRequest, CallOptions.DEFAULT);
+    }
+
+    public CompletableFuture<CreateTransactionResponse> createTransactionAsync(CreateTransactionRequest createTransactionRequest, CallOptions callOptions) {
+        return track(callOptions, context -> fetchTokens(BerbixEndpoint.CREATE_TRANSACTION, "/v0/transactions", createTransactionRequest, context.idempotencyKey, context)
                 .thenApply(fetchTokensResponse -> {
                     Tokens tokens = createTokens(fetchTokensResponse);
 
@@ -76,15 +347,19 @@ public class BerbixApi {
                 })
                 .handle((result, ex) -> {
                     if (ex != null) {
-                        throw new BerbixException("Unable to create transaction", ex);
+                        throw BerbixErrors.wrap("Unable to create transaction", ex);
                     }
 
                     return result;
-                });
+                }));
     }
 
     public CompletableFuture<CreateHostedTransactionResponse> createHostedTransactionAsync(CreateHostedTransactionRequest createHostedTransactionRequest) {
-        return fetchTokens("/v0/transactions", createHostedTransactionRequest)
+        return createHostedTransactionAsync(createHostedTransactionRequest, CallOptions.DEFAULT);
+    }
+
+    public CompletableFuture<CreateHostedTransactionResponse> createHostedTransactionAsync(CreateHostedTransactionRequest createHostedTransactionRequest, CallOptions callOptions) {
+        return track(callOptions, context -> fetchTokens(BerbixEndpoint.CREATE_TRANSACTION, "/v0/transactions", createHostedTransactionRequest, context.idempotencyKey, context)
                 .thenApply(fetchTokensResponse -> {
                     Tokens tokens = createTokens(fetchTokensResponse);
 
@@ -95,15 +370,19 @@ public class BerbixApi {
                 })
                 .handle((result, ex) -> {
                     if (ex != null) {
-                        throw new BerbixException("Unable to create hosted transaction", ex);
+                        throw BerbixErrors.wrap("Unable to create hosted transaction", ex);
                     }
 
                     return result;
-                });
+                }));
     }
 
     public CompletableFuture<CreateAPIOnlyTransactionResponse> createAPIOnlyTransactionAsync(CreateAPIOnlyTransactionRequest createAPIOnlyTransactionRequest) {
-        return fetchTokens("/v0/transactions", createAPIOnlyTransactionRequest)
+        return createAPIOnlyTransactionAsync(createAPIOnlyTransactionRequest, CallOptions.DEFAULT);
+    }
+
+    public CompletableFuture<CreateAPIOnlyTransactionResponse> createAPIOnlyTransactionAsync(CreateAPIOnlyTransactionRequest createAPIOnlyTransactionRequest, CallOptions callOptions) {
+        return track(callOptions, context -> fetchTokens(BerbixEndpoint.CREATE_TRANSACTION, "/v0/transactions", createAPIOnlyTransactionRequest, context.idempotencyKey, context)
                 .thenApply(fetchTokensResponse -> {
                     Tokens tokens = createTokens(fetchTokensResponse);
 
@@ -113,25 +392,28 @@ public class BerbixApi {
                 })
                 .handle((result, ex) -> {
                     if (ex != null) {
-                        throw new BerbixException("Unable to create APIOnly transaction", ex);
+                        throw BerbixErrors.wrap("Unable to create APIOnly transaction", ex);
                     }
 
                     return result;
-                });
+                }));
     }
 
     private Tokens createTokens(FetchTokensResponse fetchTokensResponse) {
-        Tokens tokens = new Tokens();
-        tokens.accessToken = fetchTokensResponse.accessToken;
-        tokens.clientToken = fetchTokensResponse.clientToken;
-        tokens.refreshToken = fetchTokensResponse.refreshToken;
-        tokens.transactionId = fetchTokensResponse.transactionId;
-        tokens.expiresAt = ZonedDateTime.now(ZoneId.of("UTC")).plus(fetchTokensResponse.expiresIn, ChronoUnit.SECONDS);
-        tokens.responseJsonString = fetchTokensResponse.responseJsonString;
-        return tokens;
+        long expiresInNanos = TimeUnit.SECONDS.toNanos(fetchTokensResponse.expiresIn);
+        TokenSnapshot snapshot = new TokenSnapshot(
+                fetchTokensResponse.accessToken,
+                fetchTokensResponse.clientToken,
+                fetchTokensResponse.refreshToken,
+                fetchTokensResponse.transactionId,
+                ZonedDateTime.now(ZoneId.of("UTC")).plus(fetchTokensResponse.expiresIn, ChronoUnit.SECONDS),
+                System.nanoTime() + expiresInNanos,
+                true,
+                fetchTokensResponse.responseJsonString);
+        return Tokens.fromSnapshot(snapshot);
     }
 
-    private CompletableFuture<FetchTokensResponse> fetchTokens(String path, Object payload) {
+    private CompletableFuture<FetchTokensResponse> fetchTokens(BerbixEndpoint endpoint, String path, Object payload, String idempotencyKey, CallContext context) {
         Builder requestBuilder = new Request.Builder()
                 .url(apiHost + path)
                 .header("Authorization", "Basic " + Base64.getEncoder().encodeToString((apiSecret + ":").getBytes(StandardCharsets.UTF_8)))
@@ -139,6 +421,10 @@ public class BerbixApi {
                 .addHeader("Accept", "application/json")
                 .addHeader("User-Agent", "BerbixJava/" + Berbix.BERBIX_SDK_VERSION);
 
+        if (idempotencyKey != null) {
+            requestBuilder = requestBuilder.header("Idempotency-Key", idempotencyKey);
+        }
+
         Request request;
 
         try {
@@ -149,45 +435,57 @@ public class BerbixApi {
             throw new BerbixException("Unable to create transaction", e);
         }
 
-        OkHttpResponseFuture callback = new OkHttpResponseFuture();
-        okHttpClient.newCall(request).enqueue(callback);
-
-        return callback.future.thenApply(response -> {
-            String apiResponseData;
-            try {
-                apiResponseData = response.body().string();
-            } catch (IOException e) {
-                throw new BerbixException("Unable to create transaction", e);
-            }
+        return executeForBody(request, endpoint, context).thenApply(read -> {
+            String apiResponseData = read.body;
 
-            if (response.isSuccessful()) {
+            if (read.response.isSuccessful()) {
                 FetchTokensResponse fetchTokensResponse = null;
                 try {
                     fetchTokensResponse = objectMapper.readValue(apiResponseData, FetchTokensResponse.class);
                     fetchTokensResponse.responseJsonString = apiResponseData;
                 } catch (JsonProcessingException e) {
                     throw new BerbixException(apiResponseData);
-                } finally {
-                    response.close();
                 }
 
                 return fetchTokensResponse;
             } else {
-                throw new BerbixException(apiResponseData);
+                throw BerbixErrors.fromResponse(read.response, apiResponseData, objectMapper, captureApiErrorStackTraces);
             }
         });
     }
 
     public CompletableFuture<Transaction> fetchTransactionAsync(Tokens tokens) {
+        return fetchTransactionAsync(tokens, CallOptions.DEFAULT);
+    }
+
+    public CompletableFuture<Transaction> fetchTransactionAsync(Tokens tokens, CallOptions callOptions) {
+        // A call with its own deadline is not shared, since the shared request runs under the first caller's options.
+        Object key = fetchCoalescer == null || callOptions.timeoutMillis != 0 ? null : fetchKey(tokens);
+        if (key != null) {
+            return fetchCoalescer.submit(key, () -> fetchTransactionUncoalesced(tokens, callOptions));
+        }
+        return fetchTransactionUncoalesced(tokens, callOptions);
+    }
+
+    // fetchKey identifies the transaction the tokens belong to, by id once known and by refresh token before that.
+    private static Object fetchKey(Tokens tokens) {
+        TokenSnapshot snapshot = tokens.snapshot();
+        if (snapshot.transactionId != null) {
+            return snapshot.transactionId;
+        }
+        return snapshot.refreshToken;
+    }
+
+    private CompletableFuture<Transaction> fetchTransactionUncoalesced(Tokens tokens, CallOptions callOptions) {
         try {
-            return tokenAuthRequest("GET", tokens, "/v0/transactions", null, Transaction.class)
+            return track(callOptions, context -> tokenAuthRequest(BerbixEndpoint.FETCH_TRANSACTION, "GET", tokens, "/v0/transactions", null, Transaction.class, context)
                     .handle((result, ex) -> {
                         if (ex != null) {
-                            throw new BerbixException("Unable to fetch transaction", ex);
+                            throw BerbixErrors.wrap("Unable to fetch transaction", ex);
                         }
 
                         return result;
-                    });
+                    }));
         } catch (IOException e) {
             CompletableFuture<Transaction> completableFuture = new CompletableFuture<>();
             completableFuture.completeExceptionally(new BerbixException("Unable to fetch transaction", e));
@@ -195,11 +493,11 @@ public class BerbixApi {
         }
     }
 
-    private <T> CompletableFuture<T> tokenAuthRequest(String method, Tokens tokens, String path, Object payload, Class<T> responseClass) throws IOException {
-        return refreshIfNecessaryAsync(tokens).thenCompose(newTokens -> tokenRequest(method, newTokens.accessToken, path, payload, responseClass));
+    private <T> CompletableFuture<T> tokenAuthRequest(BerbixEndpoint endpoint, String method, Tokens tokens, String path, Object payload, Class<T> responseClass, CallContext context) throws IOException {
+        return refreshIfNecessaryAsync(tokens, context).thenCompose(snapshot -> tokenRequest(endpoint, method, snapshot.accessToken, path, payload, responseClass, context));
     }
 
-    private <T> CompletableFuture<T> tokenRequest(String method, String token, String path, Object payload, Class<T> responseClass) {
+    private <T> CompletableFuture<T> tokenRequest(BerbixEndpoint endpoint, String method, String token, String path, Object payload, Class<T> responseClass, CallContext context) {
         Builder requestBuilder = new Request.Builder()
                 .url(apiHost + path)
                 .header("Authorization", "Bearer " + token)
@@ -207,6 +505,10 @@ public class BerbixApi {
                 .addHeader("Accept", "application/json")
                 .addHeader("User-Agent", "BerbixJava/" + Berbix.BERBIX_SDK_VERSION);
 
+        if (context.idempotencyKey != null) {
+            requestBuilder = requestBuilder.header("Idempotency-Key", context.idempotencyKey);
+        }
+
         if (payload != null) {
             try {
                 RequestBody reqBody = RequestBody.create(MEDIA_TYPE_JSON, objectMapper.writeValueAsString(payload));
@@ -232,53 +534,81 @@ public class BerbixApi {
 
         Request request = requestBuilder.build();
 
-        OkHttpResponseFuture callback = new OkHttpResponseFuture();
-        okHttpClient.newCall(request).enqueue(callback);
+        CompletableFuture<ReadResponse> responseFuture = executeForBody(request, endpoint, context);
 
-        return callback.future.thenApply(response -> {
-            String responseData;
+        return responseFuture.thenApply(read -> {
+            Response response = read.response;
 
             if (response.code() == 204 && responseClass == String.class) {
                 // cast string as String so T compiles.
                 return responseClass.cast("finished");
             } else {
                 try {
-                    responseData = response.body().string();
                     if (response.isSuccessful()) {
-                        return objectMapper.readValue(responseData, responseClass);
+                        return objectMapper.readValue(read.body, responseClass);
                     } else {
-                        throw new BerbixException(responseData);
+                        throw BerbixErrors.fromResponse(response, read.body, objectMapper, captureApiErrorStackTraces);
                     }
-                } catch (IOException e) {
+                } catch (JsonProcessingException e) {
                     throw new BerbixException("Unable to create transaction", e);
-                } finally {
-                    response.close();
                 }
             }
         });
     }
 
-    private CompletableFuture<Tokens> refreshIfNecessaryAsync(Tokens tokens) {
-        if (tokens.needsRefresh()) {
-            return refreshTokensAsync(tokens)
-                    .thenApply(newTokens -> {
-                        tokens.refresh(newTokens);
-                        return tokens;
-                    });
-        } else {
-            return CompletableFuture.completedFuture(tokens);
+    private CompletableFuture<TokenSnapshot> refreshIfNecessaryAsync(Tokens tokens, CallContext context) {
+        TokenSnapshot snapshot = tokens.snapshot();
+        if (!snapshot.needsRefresh(tokenRefreshSkewNanos)) {
+            return CompletableFuture.completedFuture(snapshot);
+        }
+
+        TokenHolder holder = tokens.holder();
+        CompletableFuture<TokenSnapshot> refresh = new CompletableFuture<>();
+        CompletableFuture<TokenSnapshot> inFlight = holder.joinRefresh(refresh);
+        if (inFlight != refresh) {
+            // Another call is already refreshing these tokens. Its refresh runs under that call's deadline and
+            // cancellation, so if it fails this call refreshes for itself.
+            return inFlight.handle((refreshed, ex) -> ex == null
+                            ? CompletableFuture.completedFuture(refreshed)
+                            : refreshAndUpdate(tokens, context))
+                    .thenCompose(future -> future);
         }
+
+        refreshAndUpdate(tokens, context).whenComplete((refreshed, ex) -> {
+            holder.refreshDone(refresh);
+            if (ex != null) {
+                refresh.completeExceptionally(ex);
+            } else {
+                refresh.complete(refreshed);
+            }
+        });
+        return refresh;
+    }
+
+    private CompletableFuture<TokenSnapshot> refreshAndUpdate(Tokens tokens, CallContext context) {
+        return refreshTokens(tokens, context).thenApply(newTokens -> {
+            tokens.refresh(newTokens);
+            return tokens.snapshot();
+        });
     }
 
     public CompletableFuture<Tokens> refreshTokensAsync(Tokens tokens) {
+        return refreshTokensAsync(tokens, CallOptions.DEFAULT);
+    }
+
+    public CompletableFuture<Tokens> refreshTokensAsync(Tokens tokens, CallOptions callOptions) {
+        return track(callOptions, context -> refreshTokens(tokens, context));
+    }
+
+    private CompletableFuture<Tokens> refreshTokens(Tokens tokens, CallContext context) {
         RefreshTokenRequest request = new RefreshTokenRequest();
-        request.refreshToken = tokens.refreshToken;
+        request.refreshToken = tokens.snapshot().refreshToken;
         request.grantType = "refresh_token";
-        return fetchTokens("/v0/tokens", request)
+        return fetchTokens(BerbixEndpoint.REFRESH_TOKENS, "/v0/tokens", request, null, context)
                 .thenApply(this::createTokens)
                 .handle((result, ex) -> {
                     if (ex != null) {
-                        throw new BerbixException("Unable to refresh tokens", ex);
+                        throw BerbixErrors.wrap("Unable to refresh tokens", ex);
                     }
 
                     return result;
@@ -286,15 +616,19 @@ public class BerbixApi {
     }
 
     public CompletableFuture<Boolean> overrideTransactionAsync(Tokens tokens, OverrideTransactionRequest request) {
+        return overrideTransactionAsync(tokens, request, CallOptions.DEFAULT);
+    }
+
+    public CompletableFuture<Boolean> overrideTransactionAsync(Tokens tokens, OverrideTransactionRequest request, CallOptions callOptions) {
         try {
-            return tokenAuthRequest("PATCH", tokens, "/v0/transactions/override", request, String.class)
+            return track(callOptions, context -> tokenAuthRequest(BerbixEndpoint.MODIFY_TRANSACTION, "PATCH", tokens, "/v0/transactions/override", request, String.class, context)
                     .handle((result, ex) -> {
                         if (ex != null) {
-                            throw new BerbixException("Unable to override transaction", ex);
+                            throw BerbixErrors.wrap("Unable to override transaction", ex);
                         }
 
                         return true;
-                    });
+                    }));
         } catch (IOException e) {
             CompletableFuture<Boolean> completableFuture = new CompletableFuture<>();
             completableFuture.completeExceptionally(new BerbixException("Unable to override transaction", e));
@@ -303,15 +637,19 @@ public class BerbixApi {
     }
 
     public CompletableFuture<Transaction> updateTransactionAsync(Tokens tokens, UpdateTransactionRequest request) {
+        return updateTransactionAsync(tokens, request, CallOptions.DEFAULT);
+    }
+
+    public CompletableFuture<Transaction> updateTransactionAsync(Tokens tokens, UpdateTransactionRequest request, CallOptions callOptions) {
         try {
-            return tokenAuthRequest("PATCH", tokens, "/v0/transactions", request, Transaction.class)
+            return track(callOptions, context -> tokenAuthRequest(BerbixEndpoint.MODIFY_TRANSACTION, "PATCH", tokens, "/v0/transactions", request, Transaction.class, context)
                     .handle((result, ex) -> {
                         if (ex != null) {
-                            throw new BerbixException("Unable to update transaction", ex);
+                            throw BerbixErrors.wrap("Unable to update transaction", ex);
                         }
 
                         return result;
-                    });
+                    }));
         } catch (IOException e) {
             CompletableFuture<Transaction> completableFuture = new CompletableFuture<>();
             completableFuture.completeExceptionally(new BerbixException("Unable to update transaction", e));
@@ -320,15 +658,19 @@ public class BerbixApi {
     }
 
     public CompletableFuture<Boolean> deleteTransactionAsync(Tokens tokens) {
+        return deleteTransactionAsync(tokens, CallOptions.DEFAULT);
+    }
+
+    public CompletableFuture<Boolean> deleteTransactionAsync(Tokens tokens, CallOptions callOptions) {
         try {
-            return tokenAuthRequest("DELETE", tokens, "/v0/transactions", null, String.class)
+            return track(callOptions, context -> tokenAuthRequest(BerbixEndpoint.MODIFY_TRANSACTION, "DELETE", tokens, "/v0/transactions", null, String.class, context)
                     .handle((result, ex) -> {
                         if (ex != null) {
-                            throw new BerbixException("Unable to override transaction", ex);
+                            throw BerbixErrors.wrap("Unable to override transaction", ex);
                         }
 
                         return true;
-                    });
+                    }));
         } catch (IOException e) {
             CompletableFuture<Boolean> completableFuture = new CompletableFuture<>();
             completableFuture.completeExceptionally(new BerbixException("Unable to override transaction", e));
@@ -337,20 +679,96 @@ public class BerbixApi {
     }
 
     public CompletableFuture<UploadImagesResponse> uploadImagesAsync(String clientToken, UploadImagesRequest uploadImagesRequest) {
+        return uploadImagesAsync(clientToken, uploadImagesRequest, CallOptions.DEFAULT);
+    }
+
+    public CompletableFuture<UploadImagesResponse> uploadImagesAsync(String clientToken, UploadImagesRequest uploadImagesRequest, CallOptions callOptions) {
         if (uploadImagesRequest.images == null || uploadImagesRequest.images.isEmpty()) {
             CompletableFuture<UploadImagesResponse> completableFuture = new CompletableFuture<>();
             completableFuture.completeExceptionally(new BerbixException("Invalid uploadImagesRequest", new IllegalStateException()));
             return completableFuture;
         }
 
-        return tokenRequest("POST", clientToken, "/v0/images/upload", uploadImagesRequest, UploadImagesResponse.class)
+        return track(callOptions, context -> tokenRequest(BerbixEndpoint.UPLOAD_IMAGES, "POST", clientToken, "/v0/images/upload", uploadImagesRequest, UploadImagesResponse.class, context)
                 .handle((result, ex) -> {
                     if (ex != null) {
-                        throw new BerbixException("Unable to upload images", ex);
+                        throw BerbixErrors.wrap("Unable to upload images", ex);
                     }
 
                     return result;
-                });
+                }));
+    }
+
+    public CompletableFuture<Long> downloadImageAsync(Tokens tokens, String url, ImageTarget target) {
+        return downloadImageAsync(tokens, url, target, CallOptions.DEFAULT);
+    }
+
+    // downloadImageAsync streams the image at url into target and completes with the number of bytes written.
+    public CompletableFuture<Long> downloadImageAsync(Tokens tokens, String url, ImageTarget target, CallOptions callOptions) {
+        return track(callOptions, context -> refreshIfNecessaryAsync(tokens, context)
+                .thenCompose(snapshot -> download(url, snapshot.accessToken, target, context))
+                .handle((result, ex) -> {
+                    if (ex != null) {
+                        throw BerbixErrors.wrap("Unable to download image", ex);
+                    }
+
+                    return result;
+                }));
+    }
+
+    public CompletableFuture<List<DownloadedImage>> downloadImagesAsync(Tokens tokens, Transaction.TransactionImagesSet images, Path directory, int maxConcurrency) {
+        return downloadImagesAsync(tokens, images, directory, maxConcurrency, CallOptions.DEFAULT);
+    }
+
+    // downloadImagesAsync downloads every image of the set into directory, at most maxConcurrency at a time. The
+    // downloads share one CallContext, so the deadline in callOptions bounds them all and cancelling the returned
+    // future cancels the downloads still running or waiting to start.
+    public CompletableFuture<List<DownloadedImage>> downloadImagesAsync(Tokens tokens, Transaction.TransactionImagesSet images, Path directory, int maxConcurrency, CallOptions callOptions) {
+        return track(callOptions, context -> ImageDownloads.download(images, directory, maxConcurrency,
+                        // Concurrent downloads that find the access token expired share one refresh.
+                        download -> refreshIfNecessaryAsync(tokens, context)
+                                .thenCompose(snapshot -> download(download.url, snapshot.accessToken, download.target, context)))
+                .handle((result, ex) -> {
+                    if (ex != null) {
+                        throw BerbixErrors.wrap("Unable to download images", ex);
+                    }
+
+                    return result;
+                }));
+    }
+
+    private CompletableFuture<Long> download(String url, String accessToken, ImageTarget target, CallContext context) {
+        HttpUrl httpUrl = HttpUrl.parse(url);
+        if (httpUrl == null) {
+            CompletableFuture<Long> completableFuture = new CompletableFuture<>();
+            completableFuture.completeExceptionally(new BerbixException("Invalid image url " + url));
+            return completableFuture;
+        }
+
+        Builder requestBuilder = new Request.Builder()
+                .url(httpUrl)
+                .addHeader("User-Agent", "BerbixJava/" + Berbix.BERBIX_SDK_VERSION);
+        // Only send the access token to the API itself, not to the storage hosts images may be served from.
+        HttpUrl api = HttpUrl.parse(apiHost);
+        if (api != null && api.host().equals(httpUrl.host())) {
+            requestBuilder = requestBuilder.header("Authorization", "Bearer " + accessToken);
+        }
+
+        // The response is read on the OkHttp thread that received it, straight into the target.
+        return execute(requestBuilder.build(), BerbixEndpoint.DOWNLOAD_IMAGE, context, response -> {
+            try {
+                if (!response.isSuccessful()) {
+                    throw BerbixErrors.fromResponse(response, response.body().string(), objectMapper, captureApiErrorStackTraces);
+                }
+                ResponseBody body = response.body();
+                MediaType contentType = body.contentType();
+                return target.write(body.source(), contentType == null ? null : contentType.toString());
+            } catch (IOException e) {
+                throw BerbixErrors.wrap("Unable to download image", e);
+            } finally {
+                response.close();
+            }
+        });
     }
 
     public class OkHttpResponseFuture implements Callback {
@@ -0,0 +1,43 @@
+package com.berbix;
+
+// BerbixApiException is thrown when the Berbix API answers with an error status. Its message is the
+// response body.
+public class BerbixApiException extends BerbixException {
+  private static final long serialVersionUID = 1L;
+  private final int statusCode;
+  private final String errorCode;
+  private final String errorMessage;
+  private final String responseBody;
+  private final String requestId;
+
+  BerbixApiException(int statusCode, String errorCode, String errorMessage, String responseBody, String requestId, boolean writableStackTrace) {
+    super(responseBody, null, writableStackTrace);
+    this.statusCode = statusCode;
+    this.errorCode = errorCode;
+    this.errorMessage = errorMessage;
+    this.responseBody = responseBody;
+    this.requestId = requestId;
+  }
+
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+  // getErrorCode is the error code from the response body, if it had one.
+  public String getErrorCode() {
+    return errorCode;
+  }
+
+  // getErrorMessage is the error message from the response body, if it had one.
+  public String getErrorMessage() {
+    return errorMessage;
+  }
+
+  public String getResponseBody() {
+    return responseBody;
+  }
+
+  public String getRequestId() {
+    return requestId;
+  }
+}
@@ -0,0 +1,10 @@
+package com.berbix;
+
+// BerbixAuthException is thrown for 401 and 403 responses, e.g. an invalid API secret or expired tokens.
+public class BerbixAuthException extends BerbixApiException {
+  private static final long serialVersionUID = 1L;
+
+  BerbixAuthException(int statusCode, String errorCode, String errorMessage, String responseBody, String requestId, boolean writableStackTrace) {
+    super(statusCode, errorCode, errorMessage, responseBody, requestId, writableStackTrace);
+  }
+}
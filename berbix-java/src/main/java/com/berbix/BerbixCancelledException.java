@@ -0,0 +1,10 @@
+package com.berbix;
+
+// BerbixCancelledException is thrown when a call was cancelled, by the caller or by the client closing.
+public class BerbixCancelledException extends BerbixException {
+  private static final long serialVersionUID = 1L;
+
+  BerbixCancelledException(String message, Throwable e) {
+    super(message, e);
+  }
+}
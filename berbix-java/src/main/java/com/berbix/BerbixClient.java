@@ -5,11 +5,14 @@ import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 import javax.xml.bind.DatatypeConverter;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class BerbixClient implements AutoCloseable {
 
@@ -17,10 +20,14 @@ public class BerbixClient implements AutoCloseable {
   private final BerbixApi berbixAPI;
 
   BerbixClient(Berbix.BerbixOptions options) {
-    String apiSecret = options.apiSecret;
-    String apiHost = options.apiHost;
+    this(new BerbixApi(options));
+    if (options.warmUpConnections > 0) {
+      berbixAPI.warmUp(options.warmUpConnections);
+    }
+  }
 
-    this.berbixAPI = new BerbixApi(apiSecret, apiHost);
+  BerbixClient(BerbixApi berbixAPI) {
+    this.berbixAPI = berbixAPI;
   }
 
   public CreateTransactionResponse createTransaction(CreateTransactionRequest createTransactionRequest) throws ExecutionException, InterruptedException {
@@ -31,6 +38,10 @@ public class BerbixClient implements AutoCloseable {
     return berbixAPI.createTransactionAsync(createTransactionRequest);
   }
 
+  public CompletableFuture<CreateTransactionResponse> createTransactionAsync(CreateTransactionRequest createTransactionRequest, CallOptions callOptions) {
+    return berbixAPI.createTransactionAsync(createTransactionRequest, callOptions);
+  }
+
   public CreateAPIOnlyTransactionResponse createAPIOnlyTransaction(CreateAPIOnlyTransactionRequest createAPIOnlyTransactionRequest) throws ExecutionException, InterruptedException {
     return createAPIOnlyTransactionAsync(createAPIOnlyTransactionRequest).get();
   }
@@ -39,6 +50,10 @@ public class BerbixClient implements AutoCloseable {
     return berbixAPI.createAPIOnlyTransactionAsync(createAPIOnlyTransactionRequest);
   }
 
+  public CompletableFuture<CreateAPIOnlyTransactionResponse> createAPIOnlyTransactionAsync(CreateAPIOnlyTransactionRequest createAPIOnlyTransactionRequest, CallOptions callOptions) {
+    return berbixAPI.createAPIOnlyTransactionAsync(createAPIOnlyTransactionRequest, callOptions);
+  }
+
   public CreateHostedTransactionResponse createHostedTransaction(CreateHostedTransactionRequest createHostedTransactionRequest) throws ExecutionException, InterruptedException {
     return createHostedTransactionAsync(createHostedTransactionRequest).get();
   }
@@ -47,6 +62,10 @@ public class BerbixClient implements AutoCloseable {
     return berbixAPI.createHostedTransactionAsync(createHostedTransactionRequest);
   }
 
+  public CompletableFuture<CreateHostedTransactionResponse> createHostedTransactionAsync(CreateHostedTransactionRequest createHostedTransactionRequest, CallOptions callOptions) {
+    return berbixAPI.createHostedTransactionAsync(createHostedTransactionRequest, callOptions);
+  }
+
   public Transaction fetchTransaction(Tokens tokens) throws ExecutionException, InterruptedException {
     return fetchTransactionAsync(tokens).get();
   }
@@ -55,6 +74,10 @@ public class BerbixClient implements AutoCloseable {
     return berbixAPI.fetchTransactionAsync(tokens);
   }
 
+  public CompletableFuture<Transaction> fetchTransactionAsync(Tokens tokens, CallOptions callOptions) {
+    return berbixAPI.fetchTransactionAsync(tokens, callOptions);
+  }
+
   public Tokens refreshTokens(Tokens tokens) throws ExecutionException, InterruptedException {
     return refreshTokensAsync(tokens).get();
   }
@@ -63,6 +86,10 @@ public class BerbixClient implements AutoCloseable {
     return berbixAPI.refreshTokensAsync(tokens);
   }
 
+  public CompletableFuture<Tokens> refreshTokensAsync(Tokens tokens, CallOptions callOptions) {
+    return berbixAPI.refreshTokensAsync(tokens, callOptions);
+  }
+
   public Boolean overrideTransaction(Tokens tokens, OverrideTransactionRequest request) throws ExecutionException, InterruptedException {
     return overrideTransactionAsync(tokens, request).get();
   }
@@ -71,6 +98,10 @@ public class BerbixClient implements AutoCloseable {
     return berbixAPI.overrideTransactionAsync(tokens, request);
   }
 
+  public CompletableFuture<Boolean> overrideTransactionAsync(Tokens tokens, OverrideTransactionRequest request, CallOptions callOptions) {
+    return berbixAPI.overrideTransactionAsync(tokens, request, callOptions);
+  }
+
   public Transaction updateTransaction(Tokens tokens, UpdateTransactionRequest request) throws ExecutionException, InterruptedException {
     return updateTransactionAsync(tokens, request).get();
   }
@@ -79,6 +110,10 @@ public class BerbixClient implements AutoCloseable {
     return berbixAPI.updateTransactionAsync(tokens, request);
   }
 
+  public CompletableFuture<Transaction> updateTransactionAsync(Tokens tokens, UpdateTransactionRequest request, CallOptions callOptions) {
+    return berbixAPI.updateTransactionAsync(tokens, request, callOptions);
+  }
+
   public Boolean deleteTransaction(Tokens tokens) throws ExecutionException, InterruptedException {
     return deleteTransactionAsync(tokens).get();
   }
@@ -87,6 +122,23 @@ public class BerbixClient implements AutoCloseable {
     return berbixAPI.deleteTransactionAsync(tokens);
   }
 
+  public CompletableFuture<Boolean> deleteTransactionAsync(Tokens tokens, CallOptions callOptions) {
+    return berbixAPI.deleteTransactionAsync(tokens, callOptions);
+  }
+
+  public BerbixProcessor<CreateTransactionRequest, CreateTransactionResponse> createTransactionProcessor(int maxInFlight) {
+    return new BerbixProcessor<>(this::createTransactionAsync, maxInFlight);
+  }
+
+  public BerbixProcessor<Tokens, Transaction> fetchTransactionProcessor(int maxInFlight) {
+    return new BerbixProcessor<>(this::fetchTransactionAsync, maxInFlight);
+  }
+
+  // exportTransactions starts building an export of transactions to newline-delimited JSON.
+  public TransactionExport.Builder exportTransactions() {
+    return new TransactionExport.Builder(berbixAPI);
+  }
+
   public boolean validateSignature(String secret, String body, String header) {
     String[] parts = header.split(",");
 
@@ -120,8 +172,62 @@ public class BerbixClient implements AutoCloseable {
     return berbixAPI.uploadImagesAsync(clientToken, uploadImagesRequest);
   }
 
+  public CompletableFuture<UploadImagesResponse> uploadImagesAsync(String clientToken, UploadImagesRequest uploadImagesRequest, CallOptions callOptions) {
+    return berbixAPI.uploadImagesAsync(clientToken, uploadImagesRequest, callOptions);
+  }
+
+  public long downloadImage(Tokens tokens, String url, ImageTarget target) throws ExecutionException, InterruptedException {
+    return downloadImageAsync(tokens, url, target).get();
+  }
+
+  public CompletableFuture<Long> downloadImageAsync(Tokens tokens, String url, ImageTarget target) {
+    return berbixAPI.downloadImageAsync(tokens, url, target);
+  }
+
+  public CompletableFuture<Long> downloadImageAsync(Tokens tokens, String url, ImageTarget target, CallOptions callOptions) {
+    return berbixAPI.downloadImageAsync(tokens, url, target, callOptions);
+  }
+
+  public List<DownloadedImage> downloadImages(Tokens tokens, Transaction.TransactionImagesSet images, Path directory, int maxConcurrency) throws ExecutionException, InterruptedException {
+    return downloadImagesAsync(tokens, images, directory, maxConcurrency).get();
+  }
+
+  public CompletableFuture<List<DownloadedImage>> downloadImagesAsync(Tokens tokens, Transaction.TransactionImagesSet images, Path directory, int maxConcurrency) {
+    return berbixAPI.downloadImagesAsync(tokens, images, directory, maxConcurrency);
+  }
+
+  public CompletableFuture<List<DownloadedImage>> downloadImagesAsync(Tokens tokens, Transaction.TransactionImagesSet images, Path directory, int maxConcurrency, CallOptions callOptions) {
+    return berbixAPI.downloadImagesAsync(tokens, images, directory, maxConcurrency, callOptions);
+  }
+
+  // warmUp resolves the API host, opens pooled connections to it and exercises the JSON codecs of every model
+  // type. The returned future completes when the client is ready, e.g. for a readiness probe to wait on.
+  // Warm-up runs once per client; later calls return the same future.
+  public CompletableFuture<Void> warmUp() {
+    return berbixAPI.warmUp(Berbix.DEFAULT_WARM_UP_CONNECTIONS);
+  }
+
+  // warmUp opens up to connections connections, at most 5; over HTTP/2 one connection carries every request.
+  public CompletableFuture<Void> warmUp(int connections) {
+    return berbixAPI.warmUp(connections);
+  }
+
+  // inFlightRequests is the number of calls that have been started and not yet completed.
+  public int inFlightRequests() {
+    return berbixAPI.inFlightCount();
+  }
+
+  public boolean isClosed() {
+    return berbixAPI.isClosed();
+  }
+
+  // close rejects new calls, waits for in-flight calls to finish and then releases threads and connections.
   @Override
   public void close() {
     berbixAPI.shutdown();
   }
+
+  public void close(long timeout, TimeUnit unit) {
+    berbixAPI.shutdown(timeout, unit);
+  }
 }
@@ -0,0 +1,252 @@
+package com.berbix;
+
+import okhttp3.Dispatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+// BerbixClientRegistry serves many tenants, each with its own API secret, from one shared HTTP client,
+// connection pool, dispatcher and JSON codec. A tenant's BerbixClient is created on first use and dropped
+// after it has been idle for the idle timeout, or once it is closed. Each tenant can be held to a concurrency and a request rate
+// quota, so that a busy tenant cannot use up the shared transport. Quotas are kept by tenant id, so a tenant whose
+// client is dropped and created again is still held to the same one.
+public class BerbixClientRegistry implements AutoCloseable {
+    private final Berbix.BerbixOptions options;
+    private final Function<String, String> apiSecretProvider;
+    private final int maxConcurrentRequestsPerTenant;
+    private final int maxQueuedRequestsPerTenant;
+    private final double maxRequestsPerSecondPerTenant;
+    private final long idleTimeoutNanos;
+
+    private final BerbixTransport transport;
+    private final Map<String, Tenant> tenants = new ConcurrentHashMap<>();
+    private final Map<String, TenantQuota> quotas = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor evictor;
+    // Creating tenants holds the read lock, and closing or evicting holds the write lock, so no tenant is created
+    // behind close's back and no quota is dropped while a tenant is being created with it.
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private boolean closed;
+
+    private class Tenant {
+        final BerbixApi api;
+        final BerbixClient client;
+        volatile long lastUsedNanos;
+
+        Tenant(String tenantId, BerbixApi api) {
+            this.api = api;
+            this.client = new TenantClient(tenantId, this);
+            this.lastUsedNanos = System.nanoTime();
+        }
+    }
+
+    // TenantClient is the BerbixClient handed out for a tenant. Closing it evicts the tenant instead of shutting it
+    // down, so that a caller closing its client cannot break the tenant for everyone else; the next call to client()
+    // creates a fresh one. Only closing the registry shuts tenants down.
+    private class TenantClient extends BerbixClient {
+        private final String tenantId;
+        private final Tenant tenant;
+
+        TenantClient(String tenantId, Tenant tenant) {
+            super(tenant.api);
+            this.tenantId = tenantId;
+            this.tenant = tenant;
+        }
+
+        @Override
+        public void close() {
+            tenants.remove(tenantId, tenant);
+        }
+
+        @Override
+        public void close(long timeout, TimeUnit unit) {
+            close();
+        }
+    }
+
+    private BerbixClientRegistry(Builder builder) {
+        this.options = builder.options;
+        this.apiSecretProvider = builder.apiSecretProvider;
+        this.maxConcurrentRequestsPerTenant = builder.maxConcurrentRequestsPerTenant;
+        this.maxQueuedRequestsPerTenant = builder.maxQueuedRequestsPerTenant;
+        this.maxRequestsPerSecondPerTenant = builder.maxRequestsPerSecondPerTenant;
+        this.idleTimeoutNanos = builder.idleTimeoutNanos;
+
+        // Every tenant calls the same host, so OkHttp's default limit of 5 requests per host would be shared by all.
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(builder.maxConcurrentRequests);
+        dispatcher.setMaxRequestsPerHost(builder.maxConcurrentRequests);
+        this.transport = new BerbixTransport(options, dispatcher);
+
+        this.evictor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "berbix-tenant-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long sweepNanos = Math.max(TimeUnit.SECONDS.toNanos(1), idleTimeoutNanos / 2);
+        this.evictor.scheduleWithFixedDelay(this::evictIdle, sweepNanos, sweepNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // client returns the tenant's BerbixClient, creating it if needed. Look the client up for each unit of
+    // work rather than holding on to it, so that it counts as used and is not evicted.
+    public BerbixClient client(String tenantId) {
+        Tenant tenant;
+        lock.readLock().lock();
+        try {
+            if (closed) {
+                throw new BerbixException("BerbixClientRegistry is closed");
+            }
+            tenant = tenants.computeIfAbsent(tenantId, this::createTenant);
+        } finally {
+            lock.readLock().unlock();
+        }
+        tenant.lastUsedNanos = System.nanoTime();
+        return tenant.client;
+    }
+
+    public int tenantCount() {
+        return tenants.size();
+    }
+
+    public void evict(String tenantId) {
+        tenants.remove(tenantId);
+    }
+
+    // close stops every tenant from accepting new calls, waits for their calls to finish, then releases the shared
+    // transport.
+    @Override
+    public void close() {
+        close(BerbixApi.REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // close waits at most timeout in total, however many tenants there are, before cancelling the calls still running.
+    public void close(long timeout, TimeUnit unit) {
+        long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+        List<Tenant> closing;
+        lock.writeLock().lock();
+        try {
+            closed = true;
+            closing = new ArrayList<>(tenants.values());
+            tenants.clear();
+            quotas.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        evictor.shutdownNow();
+        for (Tenant tenant : closing) {
+            tenant.api.beginShutdown();
+        }
+        for (Tenant tenant : closing) {
+            tenant.api.awaitShutdown(deadlineNanos);
+        }
+        transport.shutdown();
+    }
+
+    private Tenant createTenant(String tenantId) {
+        String apiSecret = apiSecretProvider.apply(tenantId);
+        if (apiSecret == null) {
+            throw new BerbixException("No API secret for tenant " + tenantId);
+        }
+
+        TenantQuota quota = maxConcurrentRequestsPerTenant > 0 || maxRequestsPerSecondPerTenant > 0
+                ? quotas.computeIfAbsent(tenantId, id -> new TenantQuota(maxConcurrentRequestsPerTenant, maxQueuedRequestsPerTenant, maxRequestsPerSecondPerTenant))
+                : null;
+        return new Tenant(tenantId, new BerbixApi(options.withApiSecret(apiSecret), transport, false, quota));
+    }
+
+    private void evictIdle() {
+        long now = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<String, Tenant> entry : tenants.entrySet()) {
+                Tenant tenant = entry.getValue();
+                if (now - tenant.lastUsedNanos > idleTimeoutNanos && tenant.api.inFlightCount() == 0) {
+                    tenants.remove(entry.getKey(), tenant);
+                }
+            }
+            // A quota outlives its tenant while a client handed out earlier still has calls running or queued on it.
+            for (Map.Entry<String, TenantQuota> entry : quotas.entrySet()) {
+                if (!tenants.containsKey(entry.getKey()) && entry.getValue().idle()) {
+                    quotas.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public static class Builder {
+        private Berbix.BerbixOptions options = new Berbix.BerbixOptions.Builder().build();
+        private Function<String, String> apiSecretProvider;
+        private int maxConcurrentRequests = 256;
+        private int maxConcurrentRequestsPerTenant;
+        private int maxQueuedRequestsPerTenant = 1024;
+        private double maxRequestsPerSecondPerTenant;
+        private long idleTimeoutNanos = TimeUnit.MINUTES.toNanos(10);
+
+        public BerbixClientRegistry build() {
+            if (apiSecretProvider == null) {
+                throw new IllegalStateException("apiSecretProvider is required");
+            }
+            return new BerbixClientRegistry(this);
+        }
+
+        // options are shared by all tenants; their apiSecret is ignored.
+        public Builder options(Berbix.BerbixOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        // apiSecretProvider looks up a tenant's API secret when its client is first created.
+        public Builder apiSecretProvider(Function<String, String> apiSecretProvider) {
+            this.apiSecretProvider = apiSecretProvider;
+            return this;
+        }
+
+        // maxConcurrentRequests limits the requests in flight over the shared transport. Defaults to 256.
+        public Builder maxConcurrentRequests(int maxConcurrentRequests) {
+            if (maxConcurrentRequests < 1) {
+                throw new IllegalArgumentException("maxConcurrentRequests must be at least 1");
+            }
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            return this;
+        }
+
+        // maxConcurrentRequestsPerTenant queues a tenant's calls beyond this many. Unlimited by default.
+        public Builder maxConcurrentRequestsPerTenant(int maxConcurrentRequestsPerTenant) {
+            this.maxConcurrentRequestsPerTenant = maxConcurrentRequestsPerTenant;
+            return this;
+        }
+
+        // maxQueuedRequestsPerTenant fails a tenant's calls with a BerbixRateLimitedException once this many are
+        // already waiting for maxConcurrentRequestsPerTenant. Defaults to 1024.
+        public Builder maxQueuedRequestsPerTenant(int maxQueuedRequestsPerTenant) {
+            if (maxQueuedRequestsPerTenant < 0) {
+                throw new IllegalArgumentException("maxQueuedRequestsPerTenant must not be negative");
+            }
+            this.maxQueuedRequestsPerTenant = maxQueuedRequestsPerTenant;
+            return this;
+        }
+
+        // maxRequestsPerSecondPerTenant fails a tenant's calls beyond this rate with a BerbixRateLimitedException.
+        // Unlimited by default.
+        public Builder maxRequestsPerSecondPerTenant(double maxRequestsPerSecondPerTenant) {
+            this.maxRequestsPerSecondPerTenant = maxRequestsPerSecondPerTenant;
+            return this;
+        }
+
+        public Builder idleTimeout(long idleTimeout, TimeUnit unit) {
+            if (idleTimeout <= 0) {
+                throw new IllegalArgumentException("idleTimeout must be positive");
+            }
+            this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+            return this;
+        }
+    }
+}
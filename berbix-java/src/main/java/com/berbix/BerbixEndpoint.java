@@ -0,0 +1,13 @@
+package com.berbix;
+
+// BerbixEndpoint groups the API's requests for per-endpoint settings such as timeout policies.
+public enum BerbixEndpoint {
+    // Creating a transaction, hosted or API-only.
+    CREATE_TRANSACTION,
+    REFRESH_TOKENS,
+    FETCH_TRANSACTION,
+    // Updating, overriding or deleting a transaction.
+    MODIFY_TRANSACTION,
+    UPLOAD_IMAGES,
+    DOWNLOAD_IMAGE
+}
@@ -0,0 +1,110 @@
+package com.berbix;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+// BerbixErrors maps failed calls to BerbixException subclasses. Each failure is mapped once, where it
+// happens; later stages pass a BerbixException through unchanged.
+class BerbixErrors {
+  private BerbixErrors() {
+  }
+
+  static BerbixApiException fromResponse(Response response, String body, ObjectMapper objectMapper, boolean writableStackTrace) {
+    int status = response.code();
+    String requestId = response.header("X-Request-Id");
+    String errorCode = null;
+    String errorMessage = null;
+
+    if (body != null && !body.isEmpty()) {
+      try {
+        JsonNode root = objectMapper.readTree(body);
+        JsonNode error = root.path("error");
+        if (error.isObject()) {
+          root = error;
+          error = root.path("code");
+        }
+        errorCode = error.isValueNode() ? error.asText() : root.path("code").isValueNode() ? root.path("code").asText() : null;
+        errorMessage = root.path("message").isValueNode() ? root.path("message").asText() : null;
+      } catch (IOException e) {
+        // Not a JSON error body; the raw body is still available.
+      }
+    }
+
+    if (status == 401 || status == 403) {
+      return new BerbixAuthException(status, errorCode, errorMessage, body, requestId, writableStackTrace);
+    } else if (status == 429) {
+      return new BerbixRateLimitedException(status, errorCode, errorMessage, body, requestId, retryAfterMillis(response.header("Retry-After")), writableStackTrace);
+    } else if (status >= 500) {
+      return new BerbixServerException(status, errorCode, errorMessage, body, requestId, writableStackTrace);
+    } else {
+      return new BerbixValidationException(status, errorCode, errorMessage, body, requestId, writableStackTrace);
+    }
+  }
+
+  static BerbixException wrap(String message, Throwable ex) {
+    Throwable cause = unwrap(ex);
+    if (cause instanceof BerbixException) {
+      return (BerbixException) cause;
+    }
+    if (isCancellation(cause)) {
+      return new BerbixCancelledException(message, cause);
+    }
+    if (cause instanceof InterruptedIOException) {
+      return new BerbixTimeoutException(message, (IOException) cause);
+    }
+    if (cause instanceof IOException) {
+      return new BerbixTransportException(message, (IOException) cause);
+    }
+    return new BerbixException(message, cause);
+  }
+
+  static boolean isRetryable(Throwable ex) {
+    Throwable cause = unwrap(ex);
+    if (cause instanceof BerbixException) {
+      return ((BerbixException) cause).isRetryable();
+    }
+    return cause instanceof IOException && !isCancellation(cause);
+  }
+
+  // isCancellation reports whether ex is a cancelled future or an HTTP call cancelled by OkHttp, which fails it
+  // with a plain IOException.
+  private static boolean isCancellation(Throwable ex) {
+    return ex instanceof CancellationException
+        || (ex instanceof IOException && !(ex instanceof InterruptedIOException) && "Canceled".equals(ex.getMessage()));
+  }
+
+  private static Throwable unwrap(Throwable ex) {
+    while ((ex instanceof CompletionException || ex instanceof ExecutionException) && ex.getCause() != null) {
+      ex = ex.getCause();
+    }
+    return ex;
+  }
+
+  private static Long retryAfterMillis(String retryAfter) {
+    if (retryAfter == null) {
+      return null;
+    }
+    try {
+      return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+    } catch (NumberFormatException e) {
+      // Retry-After may also be an HTTP date.
+    }
+    try {
+      ZonedDateTime retryAt = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+      return Math.max(0, Duration.between(ZonedDateTime.now(retryAt.getZone()), retryAt).toMillis());
+    } catch (DateTimeParseException e) {
+      return null;
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package com.berbix;
 
 public class BerbixException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
 
   public BerbixException(String message) {
     super(message);
@@ -9,4 +10,13 @@ public class BerbixException extends RuntimeException {
   public BerbixException(String message, Throwable e) {
     super(message, e);
   }
+
+  protected BerbixException(String message, Throwable e, boolean writableStackTrace) {
+    super(message, e, true, writableStackTrace);
+  }
+
+  // isRetryable reports whether sending the same request again may succeed.
+  public boolean isRetryable() {
+    return false;
+  }
 }
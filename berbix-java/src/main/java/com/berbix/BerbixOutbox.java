@@ -0,0 +1,208 @@
+package com.berbix;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+// BerbixOutbox makes write operations survive a crash of the calling process. Each write is appended to a
+// local OutboxJournal and forced to disk before it is sent, and marked done once its result, success or
+// failure, has been handed to the caller. A caller that retries a failed write starts a new one with a new
+// key. Writes still pending when the outbox is opened again, because the process stopped before they
+// completed, are sent again by replay(), with the idempotency key they were first sent with.
+//
+// To replay an override or update, the journal keeps the refresh token of the transaction in plaintext next to
+// the request, until the segment holding it is deleted. The directory should only be readable by the process.
+public class BerbixOutbox implements AutoCloseable {
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    public static final int DEFAULT_MAX_SEGMENTS = 8;
+    private static final int REPLAY_CONCURRENCY = 8;
+
+    private final BerbixClient client;
+    private final OutboxJournal journal;
+    private final ObjectMapper objectMapper;
+    private CompletableFuture<Void> replay;
+
+    public enum Operation {
+        CREATE_TRANSACTION,
+        OVERRIDE_TRANSACTION,
+        UPDATE_TRANSACTION,
+    }
+
+    public static class Entry {
+        public final Operation operation;
+        public final String idempotencyKey;
+        // request is a CreateTransactionRequest, OverrideTransactionRequest or UpdateTransactionRequest.
+        public final Object request;
+        public final String refreshToken;
+        public final Long transactionId;
+
+        Entry(Operation operation, String idempotencyKey, Object request, String refreshToken, Long transactionId) {
+            this.operation = operation;
+            this.idempotencyKey = idempotencyKey;
+            this.request = request;
+            this.refreshToken = refreshToken;
+            this.transactionId = transactionId;
+        }
+    }
+
+    public interface ReplayListener {
+        // onReplayed is called once per replayed entry with either the operation's result or its error.
+        void onReplayed(Entry entry, Object result, Throwable error);
+    }
+
+    private BerbixOutbox(BerbixClient client, OutboxJournal journal) {
+        this.client = client;
+        this.journal = journal;
+        this.objectMapper = BerbixApi.createObjectMapper();
+    }
+
+    public static BerbixOutbox open(BerbixClient client, Path directory) throws IOException {
+        return open(client, directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS);
+    }
+
+    // open uses at most segmentSize * maxSegments bytes of disk in directory.
+    public static BerbixOutbox open(BerbixClient client, Path directory, int segmentSize, int maxSegments) throws IOException {
+        return new BerbixOutbox(client, new OutboxJournal(directory, segmentSize, maxSegments));
+    }
+
+    public int pendingCount() {
+        return journal.pendingCount();
+    }
+
+    public CompletableFuture<CreateTransactionResponse> createTransactionAsync(CreateTransactionRequest request) {
+        return dispatch(Operation.CREATE_TRANSACTION, null, request,
+                key -> client.createTransactionAsync(request, CallOptions.idempotencyKey(key)));
+    }
+
+    public CompletableFuture<Boolean> overrideTransactionAsync(Tokens tokens, OverrideTransactionRequest request) {
+        return dispatch(Operation.OVERRIDE_TRANSACTION, tokens, request,
+                key -> client.overrideTransactionAsync(tokens, request, CallOptions.idempotencyKey(key)));
+    }
+
+    public CompletableFuture<Transaction> updateTransactionAsync(Tokens tokens, UpdateTransactionRequest request) {
+        return dispatch(Operation.UPDATE_TRANSACTION, tokens, request,
+                key -> client.updateTransactionAsync(tokens, request, CallOptions.idempotencyKey(key)));
+    }
+
+    // replay sends the entries that were pending when the outbox was opened, each one once, and marks it
+    // done after its result has been passed to listener. The returned future completes when every one of
+    // them has been attempted. Later calls return the first call's future and do not send anything.
+    public synchronized CompletableFuture<Void> replay(ReplayListener listener) {
+        if (replay != null) {
+            return replay;
+        }
+
+        AsyncLimiter limiter = new AsyncLimiter(REPLAY_CONCURRENCY);
+        List<CompletableFuture<Object>> replays = new ArrayList<>();
+
+        for (Map.Entry<Long, byte[]> recovered : journal.takeRecovered().entrySet()) {
+            long sequence = recovered.getKey();
+            Entry entry;
+            try {
+                entry = decode(recovered.getValue());
+            } catch (IOException e) {
+                // An entry that cannot be read can never be replayed; drop it rather than retry forever.
+                journal.markDone(sequence);
+                continue;
+            }
+
+            CompletableFuture<Object> sent = limiter.submit(() -> send(entry))
+                    .whenComplete((result, ex) -> {
+                        try {
+                            listener.onReplayed(entry, result, ex == null ? null : BerbixErrors.wrap("Unable to replay outbox entry", ex));
+                        } finally {
+                            journal.markDone(sequence);
+                        }
+                    });
+            replays.add(sent);
+        }
+
+        replay = CompletableFuture.allOf(replays.toArray(new CompletableFuture<?>[0]))
+                .handle((result, ex) -> null);
+        return replay;
+    }
+
+    @Override
+    public void close() throws IOException {
+        journal.close();
+    }
+
+    private <T> CompletableFuture<T> dispatch(Operation operation, Tokens tokens, Object request, Function<String, CompletableFuture<T>> call) {
+        String idempotencyKey = UUID.randomUUID().toString();
+
+        OutboxRecord record = new OutboxRecord();
+        record.operation = operation;
+        record.idempotencyKey = idempotencyKey;
+        record.request = objectMapper.valueToTree(request);
+        if (tokens != null) {
+            TokenSnapshot snapshot = tokens.snapshot();
+            record.refreshToken = snapshot.refreshToken;
+            record.transactionId = snapshot.transactionId;
+        }
+
+        byte[] payload;
+        try {
+            payload = objectMapper.writeValueAsBytes(record);
+        } catch (JsonProcessingException e) {
+            CompletableFuture<T> completableFuture = new CompletableFuture<>();
+            completableFuture.completeExceptionally(new BerbixException("Unable to write outbox entry", e));
+            return completableFuture;
+        }
+
+        CompletableFuture<Long> durable;
+        try {
+            durable = journal.append(payload);
+        } catch (BerbixException e) {
+            CompletableFuture<T> completableFuture = new CompletableFuture<>();
+            completableFuture.completeExceptionally(e);
+            return completableFuture;
+        }
+
+        // The returned future completes after the entry is marked done, so a caller that sees a failure and
+        // retries never has the failed write replayed behind its back.
+        return durable.thenCompose(sequence -> call.apply(idempotencyKey)
+                .whenComplete((result, ex) -> journal.markDone(sequence)));
+    }
+
+    private Entry decode(byte[] payload) throws IOException {
+        OutboxRecord record = objectMapper.readValue(payload, OutboxRecord.class);
+        Object request;
+        switch (record.operation) {
+            case CREATE_TRANSACTION:
+                request = objectMapper.treeToValue(record.request, CreateTransactionRequest.class);
+                break;
+            case OVERRIDE_TRANSACTION:
+                request = objectMapper.treeToValue(record.request, OverrideTransactionRequest.class);
+                break;
+            case UPDATE_TRANSACTION:
+                request = objectMapper.treeToValue(record.request, UpdateTransactionRequest.class);
+                break;
+            default:
+                throw new IOException("Unknown outbox operation " + record.operation);
+        }
+        return new Entry(record.operation, record.idempotencyKey, request, record.refreshToken, record.transactionId);
+    }
+
+    private CompletableFuture<Object> send(Entry entry) {
+        CallOptions callOptions = CallOptions.idempotencyKey(entry.idempotencyKey);
+        switch (entry.operation) {
+            case CREATE_TRANSACTION:
+                return client.createTransactionAsync((CreateTransactionRequest) entry.request, callOptions)
+                        .thenApply(response -> response);
+            case OVERRIDE_TRANSACTION:
+                return client.overrideTransactionAsync(Tokens.fromRefresh(entry.refreshToken), (OverrideTransactionRequest) entry.request, callOptions)
+                        .thenApply(response -> response);
+            default:
+                return client.updateTransactionAsync(Tokens.fromRefresh(entry.refreshToken), (UpdateTransactionRequest) entry.request, callOptions)
+                        .thenApply(response -> response);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.berbix;
+
+import org.reactivestreams.Processor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+// BerbixProcessor turns a stream of requests into a stream of results, issuing one API call per request.
+// At most maxInFlight requests are taken from upstream that have not yet been delivered downstream, so a
+// fast producer or a slow consumer never builds up more than maxInFlight calls or results in the SDK.
+// Results are emitted in completion order, and a failed call is emitted as a Result carrying the error
+// rather than terminating the stream. On Java 9+, org.reactivestreams.FlowAdapters converts it to a
+// java.util.concurrent.Flow.Processor.
+public class BerbixProcessor<T, R> implements Processor<T, BerbixProcessor.Result<T, R>> {
+    private final Function<T, CompletableFuture<R>> call;
+    private final int maxInFlight;
+
+    private final Queue<Result<T, R>> completed = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicReference<Subscriber<? super Result<T, R>>> downstream = new AtomicReference<>();
+
+    private volatile Subscription upstream;
+    private volatile boolean downstreamReady;
+    private volatile boolean upstreamDone;
+    private volatile Throwable upstreamError;
+    private volatile Throwable requestError;
+    private volatile boolean cancelled;
+    // Only accessed from within drain().
+    private boolean terminated;
+
+    public BerbixProcessor(Function<T, CompletableFuture<R>> call, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        }
+        this.call = call;
+        this.maxInFlight = maxInFlight;
+    }
+
+    public static class Result<T, R> {
+        public final T input;
+        public final R value;
+        public final Throwable error;
+
+        Result(T input, R value, Throwable error) {
+            this.input = input;
+            this.value = value;
+            this.error = error;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        if (subscription == null) {
+            throw new NullPointerException("subscription");
+        }
+        if (upstream != null || cancelled) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        start();
+    }
+
+    @Override
+    public void onNext(T item) {
+        if (item == null) {
+            throw new NullPointerException("item");
+        }
+        inFlight.incrementAndGet();
+
+        CompletableFuture<R> future;
+        try {
+            future = call.apply(item);
+        } catch (Throwable t) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(t);
+        }
+
+        future.whenComplete((value, ex) -> {
+            completed.offer(new Result<>(item, ex == null ? value : null, unwrap(ex)));
+            // Decrement only after the result is queued, so drain() never sees zero in-flight calls
+            // while a result is still on its way.
+            inFlight.decrementAndGet();
+            drain();
+        });
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        if (throwable == null) {
+            throw new NullPointerException("throwable");
+        }
+        upstreamError = throwable;
+        upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super Result<T, R>> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        if (!downstream.compareAndSet(null, subscriber)) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("BerbixProcessor supports a single subscriber"));
+            return;
+        }
+
+        subscriber.onSubscribe(new DownstreamSubscription());
+        downstreamReady = true;
+        start();
+        drain();
+    }
+
+    private void start() {
+        Subscription subscription = upstream;
+        if (subscription != null && downstream.get() != null && started.compareAndSet(false, true)) {
+            subscription.request(maxInFlight);
+        }
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+        do {
+            if (downstreamReady && !terminated) {
+                Subscriber<? super Result<T, R>> subscriber = downstream.get();
+                long emitted = drainReady(subscriber);
+
+                if (emitted > 0) {
+                    Subscription subscription = upstream;
+                    // Every delivered result frees room for another request from upstream.
+                    if (subscription != null && !upstreamDone && !cancelled) {
+                        subscription.request(emitted);
+                    }
+                }
+            }
+
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private long drainReady(Subscriber<? super Result<T, R>> subscriber) {
+        long demand = requested.get();
+        long emitted = 0;
+
+        while (true) {
+            if (cancelled) {
+                completed.clear();
+                terminated = true;
+                return emitted;
+            }
+
+            Throwable invalidRequest = requestError;
+            if (invalidRequest != null) {
+                terminate();
+                subscriber.onError(invalidRequest);
+                return emitted;
+            }
+
+            // Read upstreamDone before polling: once there are no calls in flight every result has been queued.
+            boolean done = upstreamDone && inFlight.get() == 0;
+            if (emitted == demand) {
+                if (done && completed.isEmpty()) {
+                    complete(subscriber);
+                }
+                break;
+            }
+
+            Result<T, R> result = completed.poll();
+            if (result == null) {
+                if (done) {
+                    complete(subscriber);
+                }
+                break;
+            }
+
+            subscriber.onNext(result);
+            emitted++;
+        }
+
+        if (emitted > 0 && demand != Long.MAX_VALUE) {
+            requested.addAndGet(-emitted);
+        }
+        return emitted;
+    }
+
+    private void complete(Subscriber<? super Result<T, R>> subscriber) {
+        terminated = true;
+        Throwable error = upstreamError;
+        if (error != null) {
+            subscriber.onError(error);
+        } else {
+            subscriber.onComplete();
+        }
+    }
+
+    private void terminate() {
+        terminated = true;
+        completed.clear();
+        Subscription subscription = upstream;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        if (ex instanceof CompletionException && ex.getCause() != null) {
+            return ex.getCause();
+        }
+        return ex;
+    }
+
+    private class DownstreamSubscription implements Subscription {
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                requestError = new IllegalArgumentException("request must be positive, got " + n);
+            } else {
+                requested.getAndUpdate(current -> {
+                    long next = current + n;
+                    return next < 0 ? Long.MAX_VALUE : next;
+                });
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            Subscription subscription = upstream;
+            if (subscription != null) {
+                subscription.cancel();
+            }
+            drain();
+        }
+    }
+}
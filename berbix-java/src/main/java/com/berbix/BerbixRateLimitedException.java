@@ -0,0 +1,22 @@
+package com.berbix;
+
+// BerbixRateLimitedException is thrown for 429 responses.
+public class BerbixRateLimitedException extends BerbixApiException {
+  private static final long serialVersionUID = 1L;
+  private final Long retryAfterMillis;
+
+  BerbixRateLimitedException(int statusCode, String errorCode, String errorMessage, String responseBody, String requestId, Long retryAfterMillis, boolean writableStackTrace) {
+    super(statusCode, errorCode, errorMessage, responseBody, requestId, writableStackTrace);
+    this.retryAfterMillis = retryAfterMillis;
+  }
+
+  // getRetryAfterMillis is the delay requested by the Retry-After header, or null if there was none.
+  public Long getRetryAfterMillis() {
+    return retryAfterMillis;
+  }
+
+  @Override
+  public boolean isRetryable() {
+    return true;
+  }
+}
@@ -0,0 +1,15 @@
+package com.berbix;
+
+// BerbixServerException is thrown for 5xx responses.
+public class BerbixServerException extends BerbixApiException {
+  private static final long serialVersionUID = 1L;
+
+  BerbixServerException(int statusCode, String errorCode, String errorMessage, String responseBody, String requestId, boolean writableStackTrace) {
+    super(statusCode, errorCode, errorMessage, responseBody, requestId, writableStackTrace);
+  }
+
+  @Override
+  public boolean isRetryable() {
+    return getStatusCode() != 501;
+  }
+}
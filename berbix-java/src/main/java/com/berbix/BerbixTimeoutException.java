@@ -0,0 +1,12 @@
+package com.berbix;
+
+import java.io.IOException;
+
+// BerbixTimeoutException is thrown when a call did not complete within its timeout or deadline.
+public class BerbixTimeoutException extends BerbixTransportException {
+  private static final long serialVersionUID = 1L;
+
+  BerbixTimeoutException(String message, IOException e) {
+    super(message, e);
+  }
+}
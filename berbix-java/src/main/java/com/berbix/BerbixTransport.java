@@ -0,0 +1,45 @@
+package com.berbix;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+import java.util.concurrent.TimeUnit;
+
+// BerbixTransport is the HTTP client and JSON codec behind a BerbixApi. A BerbixClientRegistry shares one
+// transport between the BerbixApis of all its tenants.
+class BerbixTransport {
+    final OkHttpClient okHttpClient;
+    final ObjectMapper objectMapper;
+    final RequestHedger requestHedger;
+    final EndpointTimeouts endpointTimeouts;
+
+    BerbixTransport(Berbix.BerbixOptions options) {
+        this(options, null);
+    }
+
+    BerbixTransport(Berbix.BerbixOptions options, Dispatcher dispatcher) {
+        this.objectMapper = BerbixApi.createObjectMapper(options.compactDecoding);
+
+        OkHttpClient.Builder okHttpClientBuilder = new OkHttpClient.Builder()
+                .callTimeout(BerbixApi.REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        if (dispatcher != null) {
+            okHttpClientBuilder.dispatcher(dispatcher);
+        }
+        if (options.requestCompression != null) {
+            okHttpClientBuilder.addInterceptor(new RequestCompressionInterceptor(options.requestCompression));
+        }
+        this.okHttpClient = okHttpClientBuilder.build();
+        this.endpointTimeouts = new EndpointTimeouts(options.timeoutPolicies, options.timeoutListener);
+        this.requestHedger = options.hedgingPolicy != null ? new RequestHedger(options.hedgingPolicy, okHttpClient) : null;
+    }
+
+    void shutdown() {
+        if (requestHedger != null) {
+            requestHedger.shutdown();
+        }
+        okHttpClient.dispatcher().cancelAll();
+        okHttpClient.dispatcher().executorService().shutdown();
+        okHttpClient.connectionPool().evictAll();
+    }
+}
@@ -0,0 +1,17 @@
+package com.berbix;
+
+import java.io.IOException;
+
+// BerbixTransportException is thrown when no response was received, e.g. a connection failure.
+public class BerbixTransportException extends BerbixException {
+  private static final long serialVersionUID = 1L;
+
+  BerbixTransportException(String message, IOException e) {
+    super(message, e);
+  }
+
+  @Override
+  public boolean isRetryable() {
+    return true;
+  }
+}
@@ -0,0 +1,10 @@
+package com.berbix;
+
+// BerbixValidationException is thrown for 4xx responses other than auth and rate limiting errors.
+public class BerbixValidationException extends BerbixApiException {
+  private static final long serialVersionUID = 1L;
+
+  BerbixValidationException(int statusCode, String errorCode, String errorMessage, String responseBody, String requestId, boolean writableStackTrace) {
+    super(statusCode, errorCode, errorMessage, responseBody, requestId, writableStackTrace);
+  }
+}
@@ -0,0 +1,66 @@
+package com.berbix;
+
+import okhttp3.Call;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// CallContext spans the HTTP calls made for one API operation, e.g. a token refresh followed by the
+// request itself, so they share one deadline and are cancelled together.
+class CallContext {
+    private final long deadlineNanos;
+    // idempotencyKey is sent with the operation's own request, not with token refreshes made for it.
+    final String idempotencyKey;
+    private final List<Call> calls = new ArrayList<>(2);
+    private boolean cancelled;
+
+    CallContext(long timeoutMillis, String idempotencyKey) {
+        this.deadlineNanos = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    // limitedByTimeout reports whether timeoutNanos, rather than the deadline, bounds a call attached now, so that
+    // a timeout of the call is the endpoint's and not the caller's.
+    synchronized boolean limitedByTimeout(long timeoutNanos) {
+        if (timeoutNanos <= 0) {
+            return false;
+        }
+        return deadlineNanos == 0 || timeoutNanos <= deadlineNanos - System.nanoTime();
+    }
+
+    // attach applies the shorter of timeoutNanos and the time left until the deadline to the call.
+    synchronized void attach(Call call, long timeoutNanos) throws IOException {
+        if (cancelled) {
+            throw new IOException("Canceled");
+        }
+
+        long callTimeoutNanos = timeoutNanos;
+        if (deadlineNanos != 0) {
+            long remainingNanos = deadlineNanos - System.nanoTime();
+            if (remainingNanos <= 0) {
+                throw new InterruptedIOException("deadline exceeded");
+            }
+            callTimeoutNanos = callTimeoutNanos > 0 ? Math.min(callTimeoutNanos, remainingNanos) : remainingNanos;
+        }
+        if (callTimeoutNanos > 0) {
+            call.timeout().timeout(callTimeoutNanos, TimeUnit.NANOSECONDS);
+        }
+
+        calls.add(call);
+    }
+
+    void cancel() {
+        List<Call> toCancel;
+        synchronized (this) {
+            cancelled = true;
+            toCancel = new ArrayList<>(calls);
+            calls.clear();
+        }
+        for (Call call : toCancel) {
+            call.cancel();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.berbix;
+
+import java.util.concurrent.TimeUnit;
+
+public class CallOptions {
+    public static final CallOptions DEFAULT = new CallOptions(0, null);
+
+    // timeoutMillis bounds the whole call, including any token refresh it needs; 0 uses the client's timeout.
+    final long timeoutMillis;
+    final String idempotencyKey;
+
+    private CallOptions(long timeoutMillis, String idempotencyKey) {
+        this.timeoutMillis = timeoutMillis;
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    public static CallOptions timeout(long timeout, TimeUnit unit) {
+        return DEFAULT.withTimeout(timeout, unit);
+    }
+
+    public static CallOptions idempotencyKey(String idempotencyKey) {
+        return DEFAULT.withIdempotencyKey(idempotencyKey);
+    }
+
+    public CallOptions withTimeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout must be positive");
+        }
+        return new CallOptions(unit.toMillis(timeout), idempotencyKey);
+    }
+
+    // withIdempotencyKey sends the key as the Idempotency-Key header, so a write that is sent again,
+    // e.g. when replayed from a BerbixOutbox, can be recognised as a duplicate.
+    public CallOptions withIdempotencyKey(String idempotencyKey) {
+        return new CallOptions(timeoutMillis, idempotencyKey);
+    }
+}
@@ -0,0 +1,198 @@
+package com.berbix;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// ClientWarmUp does the one-off work of a fresh client ahead of its first calls: resolving the API host,
+// opening pooled keep-alive connections (DNS, TCP and TLS), and loading and running the JSON
+// serializers and deserializers of every model type.
+class ClientWarmUp {
+    // OkHttp's connection pool keeps at most 5 idle connections, and its dispatcher runs at most 5 calls per host
+    // by default, so warming up more would only open connections that are closed again.
+    static final int MAX_CONNECTIONS = 5;
+    // Enough round trips for the JIT to start compiling the hottest Jackson paths.
+    private static final int CODEC_ITERATIONS = 200;
+
+    private ClientWarmUp() {
+    }
+
+    static CompletableFuture<Void> run(BerbixTransport transport, String apiHost, int connections) {
+        HttpUrl url = HttpUrl.parse(apiHost);
+        if (url == null) {
+            CompletableFuture<Void> completableFuture = new CompletableFuture<>();
+            completableFuture.completeExceptionally(new BerbixException("Invalid apiHost " + apiHost));
+            return completableFuture;
+        }
+
+        OkHttpClient okHttpClient = transport.okHttpClient;
+        // OkHttp's own executor; it grows as needed, so blocking DNS lookups here delay nothing else.
+        Executor executor = okHttpClient.dispatcher().executorService();
+
+        CompletableFuture<Void> codecs = CompletableFuture.runAsync(() -> exerciseCodecs(transport.objectMapper), executor);
+        CompletableFuture<Void> network = CompletableFuture.runAsync(() -> {
+            try {
+                okHttpClient.dns().lookup(url.host());
+            } catch (IOException e) {
+                throw new CompletionException(new BerbixTransportException("Unable to resolve " + url.host(), e));
+            }
+        }, executor).thenCompose(ignored -> openConnections(okHttpClient, url, connections));
+
+        return CompletableFuture.allOf(codecs, network);
+    }
+
+    // openConnections sends the given number of concurrent HEAD requests. Over HTTP/1.1 each one that is in flight
+    // at the same time needs its own connection; over HTTP/2 OkHttp multiplexes them, so a single connection is
+    // opened. Any response will do; the connections go back to the pool for the first real calls.
+    private static CompletableFuture<Void> openConnections(OkHttpClient okHttpClient, HttpUrl url, int connections) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        if (connections <= 0) {
+            result.complete(null);
+            return result;
+        }
+
+        AtomicInteger remaining = new AtomicInteger(connections);
+        AtomicInteger succeeded = new AtomicInteger();
+        List<IOException> failures = Collections.synchronizedList(new ArrayList<>());
+        Request request = new Request.Builder()
+                .url(url)
+                .head()
+                .header("User-Agent", "BerbixJava/" + Berbix.BERBIX_SDK_VERSION)
+                .build();
+
+        for (int i = 0; i < connections; i++) {
+            okHttpClient.newCall(request).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    failures.add(e);
+                    done();
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    response.close();
+                    succeeded.incrementAndGet();
+                    done();
+                }
+
+                private void done() {
+                    if (remaining.decrementAndGet() > 0) {
+                        return;
+                    }
+                    if (succeeded.get() > 0) {
+                        result.complete(null);
+                    } else {
+                        result.completeExceptionally(new BerbixTransportException("Unable to connect to " + url.host(), failures.get(0)));
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    private static void exerciseCodecs(ObjectMapper objectMapper) {
+        List<Object> requests = new ArrayList<>();
+        requests.add(new CreateTransactionRequest());
+        requests.add(new CreateHostedTransactionRequest());
+        requests.add(new CreateAPIOnlyTransactionRequest());
+        requests.add(new UpdateTransactionRequest());
+        requests.add(sampleOverrideRequest());
+        requests.add(sampleUploadImagesRequest());
+        requests.add(new RefreshTokenRequest());
+
+        try {
+            byte[] transaction = objectMapper.writeValueAsBytes(sampleTransaction());
+            byte[] uploadImagesResponse = objectMapper.writeValueAsBytes(sampleUploadImagesResponse());
+            byte[] fetchTokensResponse = objectMapper.writeValueAsBytes(new FetchTokensResponse());
+
+            for (int i = 0; i < CODEC_ITERATIONS; i++) {
+                for (Object request : requests) {
+                    objectMapper.writeValueAsBytes(request);
+                }
+                objectMapper.readValue(transaction, Transaction.class);
+                objectMapper.readValue(uploadImagesResponse, UploadImagesResponse.class);
+                objectMapper.readValue(fetchTokensResponse, FetchTokensResponse.class);
+            }
+        } catch (IOException e) {
+            throw new CompletionException(new BerbixException("Unable to warm up JSON codecs", e));
+        }
+    }
+
+    private static OverrideTransactionRequest sampleOverrideRequest() {
+        OverrideTransactionRequest request = new OverrideTransactionRequest();
+        request.responsePayload = OverrideTransactionRequest.ResponsePayload.US_DL;
+        request.flags = Collections.singletonList("id_under_18");
+        request.overrideFields = Collections.singletonMap("date_of_birth", "2000-12-09");
+        return request;
+    }
+
+    private static UploadImagesRequest sampleUploadImagesRequest() {
+        UploadImagesRequest.ImageData imageData = new UploadImagesRequest.ImageData();
+        imageData.data = "";
+        imageData.imageSubject = UploadImagesRequest.ImageSubjectDocumentFront;
+        imageData.format = UploadImagesRequest.ImageFormatJPEG;
+        imageData.supplementaryData = new UploadImagesRequest.ImageData.SupplementaryData();
+        imageData.supplementaryData.extractedBarcode = new UploadImagesRequest.ImageData.SupplementaryData.ExtractedBarcode();
+
+        UploadImagesRequest request = new UploadImagesRequest();
+        request.images.add(imageData);
+        return request;
+    }
+
+    private static UploadImagesResponse sampleUploadImagesResponse() {
+        UploadImagesResponse response = new UploadImagesResponse();
+        response.issues = new String[]{UploadImagesResponse.IssueBadUpload};
+        response.nextStep = UploadImagesResponse.NextStepDone;
+        return response;
+    }
+
+    private static Transaction sampleTransaction() {
+        Transaction.Fields.FieldEntry.Source source = new Transaction.Fields.FieldEntry.Source();
+        source.confidence = "high";
+        source.type = "document_ocr";
+        source.value = "value";
+
+        Transaction.Fields.FieldEntry fieldEntry = new Transaction.Fields.FieldEntry();
+        fieldEntry.confidence = "high";
+        fieldEntry.sources = Collections.singletonList(source);
+        fieldEntry.value = "value";
+
+        Transaction.Fields fields = new Transaction.Fields();
+        fields.givenName = fieldEntry;
+        fields.familyName = fieldEntry;
+        fields.dateOfBirth = fieldEntry;
+
+        Transaction.TransactionImages images = new Transaction.TransactionImages();
+        images.fullImage = "https://example.com/full";
+        Transaction.TransactionImagesSet imagesSet = new Transaction.TransactionImagesSet();
+        imagesSet.front = images;
+
+        Transaction.Duplicate duplicate = new Transaction.Duplicate();
+        duplicate.transactionId = 1L;
+
+        Transaction transaction = new Transaction();
+        transaction.action = "accept";
+        transaction.createdAt = ZonedDateTime.now();
+        transaction.completedAt = transaction.createdAt;
+        transaction.duplicates = Collections.singletonList(duplicate);
+        transaction.fields = fields;
+        transaction.flags = Collections.singletonList("id_under_18");
+        transaction.id = 1L;
+        transaction.images = imagesSet;
+        return transaction;
+    }
+}
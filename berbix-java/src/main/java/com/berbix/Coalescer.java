@@ -0,0 +1,147 @@
+package com.berbix;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// Coalescer shares one in-flight call between concurrent callers asking for the same key. Every caller gets its own
+// future, and every caller but one gets its own copy of the result, so callers cannot see each other's changes or
+// cancel each other; the shared call is only cancelled once every caller waiting on it has cancelled. Callers arriving
+// after the call has finished start a new one.
+class Coalescer<K, V> {
+
+    private final ConcurrentMap<K, Shared<V>> inFlight = new ConcurrentHashMap<>();
+    private final Function<V, V> copier;
+
+    Coalescer(Function<V, V> copier) {
+        this.copier = copier;
+    }
+
+    CompletableFuture<V> submit(K key, Supplier<CompletableFuture<V>> call) {
+        while (true) {
+            Shared<V> shared = inFlight.get(key);
+            if (shared == null) {
+                Shared<V> created = new Shared<>();
+                shared = inFlight.putIfAbsent(key, created);
+                if (shared == null) {
+                    return start(key, created, call);
+                }
+            }
+
+            CompletableFuture<V> joined = shared.join();
+            if (joined != null) {
+                return joined;
+            }
+            // The call we found has already finished, or been abandoned by all of its callers; wait for it to leave
+            // the map.
+            inFlight.remove(key, shared);
+        }
+    }
+
+    int inFlightCount() {
+        return inFlight.size();
+    }
+
+    private CompletableFuture<V> start(K key, Shared<V> shared, Supplier<CompletableFuture<V>> call) {
+        CompletableFuture<V> caller = shared.join();
+        CompletableFuture<V> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+
+        shared.start(future, copier);
+        future.whenComplete((result, ex) -> inFlight.remove(key, shared));
+        return caller;
+    }
+
+    private static class Shared<V> {
+        private final List<CompletableFuture<V>> callers = new ArrayList<>();
+        private CompletableFuture<V> call;
+        private int waiters;
+        private boolean abandoned;
+        private boolean finished;
+
+        synchronized CompletableFuture<V> join() {
+            if (abandoned || finished) {
+                return null;
+            }
+            waiters++;
+
+            CompletableFuture<V> caller = new CompletableFuture<>();
+            callers.add(caller);
+            caller.whenComplete((value, ex) -> {
+                if (ex instanceof CancellationException) {
+                    leave();
+                }
+            });
+            return caller;
+        }
+
+        void start(CompletableFuture<V> call, Function<V, V> copier) {
+            boolean cancel;
+            synchronized (this) {
+                this.call = call;
+                cancel = abandoned;
+            }
+            if (cancel) {
+                call.cancel(true);
+            }
+            call.whenComplete((value, ex) -> finish(value, ex, copier));
+        }
+
+        private void finish(V value, Throwable ex, Function<V, V> copier) {
+            List<CompletableFuture<V>> waiting = new ArrayList<>();
+            synchronized (this) {
+                finished = true;
+                for (CompletableFuture<V> caller : callers) {
+                    if (!caller.isDone()) {
+                        waiting.add(caller);
+                    }
+                }
+            }
+
+            if (ex != null) {
+                for (CompletableFuture<V> caller : waiting) {
+                    caller.completeExceptionally(ex);
+                }
+                return;
+            }
+            // Every other caller's copy is taken before the last one is handed the original, so that nobody can be
+            // changing it while it is copied. A call nobody else joined is never copied at all.
+            for (int i = 0; i < waiting.size(); i++) {
+                CompletableFuture<V> caller = waiting.get(i);
+                if (i == waiting.size() - 1 || value == null) {
+                    caller.complete(value);
+                    continue;
+                }
+                try {
+                    caller.complete(copier.apply(value));
+                } catch (RuntimeException e) {
+                    caller.completeExceptionally(e);
+                }
+            }
+        }
+
+        private void leave() {
+            CompletableFuture<V> toCancel;
+            synchronized (this) {
+                if (--waiters > 0 || finished) {
+                    return;
+                }
+                abandoned = true;
+                toCancel = call;
+            }
+            if (toCancel != null) {
+                toCancel.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.berbix;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.DeserializationConfig;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.BeanDeserializerBuilder;
+import com.fasterxml.jackson.databind.deser.BeanDeserializerModifier;
+import com.fasterxml.jackson.databind.deser.SettableBeanProperty;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.deser.std.StringDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// CompactDecoding makes decoded transactions share the instances of values that repeat across fields and records:
+// confidences, source types, flags, actions and entities. Fields keep their types, so decoded transactions look the
+// same to callers; only their retained size changes. Dates need nothing: the SDK's mapper adjusts them to UTC
+// (ADJUST_DATES_TO_CONTEXT_TIME_ZONE), and the ZoneOffset.UTC they end up with is already a single shared instance.
+class CompactDecoding {
+    static final int DEFAULT_CAPACITY = 4096;
+
+    // Values known ahead of time; any others are added as they are seen, up to the capacity.
+    private static final List<String> KNOWN_VALUES = Arrays.asList("high", "medium", "low");
+
+    // The low-cardinality string properties of each model class.
+    private static final Map<Class<?>, Set<String>> PROPERTIES = new HashMap<>();
+
+    static {
+        PROPERTIES.put(Transaction.class, new HashSet<>(Arrays.asList("action", "entity", "flags")));
+        PROPERTIES.put(Transaction.Fields.FieldEntry.class, Collections.singleton("confidence"));
+        PROPERTIES.put(Transaction.Fields.FieldEntry.Source.class, new HashSet<>(Arrays.asList("confidence", "type")));
+    }
+
+    private final int capacity;
+    private final ConcurrentMap<String, String> strings = new ConcurrentHashMap<>();
+
+    CompactDecoding(int capacity) {
+        this.capacity = capacity;
+        for (String value : KNOWN_VALUES) {
+            strings.put(value, value);
+        }
+    }
+
+    SimpleModule module() {
+        SimpleModule module = new SimpleModule("BerbixCompactDecoding");
+        module.setDeserializerModifier(new BeanDeserializerModifier() {
+            @Override
+            public BeanDeserializerBuilder updateBuilder(DeserializationConfig config, BeanDescription beanDesc, BeanDeserializerBuilder builder) {
+                Set<String> names = PROPERTIES.get(beanDesc.getBeanClass());
+                if (names == null) {
+                    return builder;
+                }
+                Iterator<SettableBeanProperty> properties = builder.getProperties();
+                List<SettableBeanProperty> replaced = new ArrayList<>();
+                while (properties.hasNext()) {
+                    SettableBeanProperty property = properties.next();
+                    if (!names.contains(property.getName())) {
+                        continue;
+                    }
+                    if (property.getType().hasRawClass(String.class)) {
+                        replaced.add(property.withValueDeserializer(new InterningStringDeserializer()));
+                    } else if (property.getType().isCollectionLikeType()) {
+                        replaced.add(property.withValueDeserializer(new InterningListDeserializer()));
+                    }
+                }
+                for (SettableBeanProperty property : replaced) {
+                    builder.addOrReplaceProperty(property, true);
+                }
+                return builder;
+            }
+        });
+        return module;
+    }
+
+    // intern returns the shared instance of value. Once the table is full, new values are returned as they are.
+    String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        String shared = strings.get(value);
+        if (shared != null) {
+            return shared;
+        }
+        if (strings.size() >= capacity) {
+            return value;
+        }
+        shared = strings.putIfAbsent(value, value);
+        return shared != null ? shared : value;
+    }
+
+    private class InterningStringDeserializer extends StdDeserializer<String> {
+        private static final long serialVersionUID = 1L;
+
+        InterningStringDeserializer() {
+            super(String.class);
+        }
+
+        @Override
+        public String deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            return intern(StringDeserializer.instance.deserialize(parser, context));
+        }
+    }
+
+    private class InterningListDeserializer extends StdDeserializer<List<String>> {
+        private static final long serialVersionUID = 1L;
+
+        InterningListDeserializer() {
+            super(List.class);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public List<String> deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            if (!parser.isExpectedStartArrayToken()) {
+                return (List<String>) context.handleUnexpectedToken(List.class, parser);
+            }
+            List<String> values = new ArrayList<>();
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                values.add(token == JsonToken.VALUE_NULL ? null : intern(StringDeserializer.instance.deserialize(parser, context)));
+            }
+            return values;
+        }
+    }
+}
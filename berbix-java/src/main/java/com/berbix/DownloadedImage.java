@@ -0,0 +1,14 @@
+package com.berbix;
+
+import java.nio.file.Path;
+
+public class DownloadedImage {
+    // side is one of front, back, selfie or liveness.
+    public String side;
+    // kind is one of full_image, face_image or cropped_image.
+    public String kind;
+    public String url;
+    public Path path;
+    public String contentType;
+    public long bytes;
+}
@@ -0,0 +1,71 @@
+package com.berbix;
+
+import java.io.InterruptedIOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// EndpointTimeouts picks the timeout of each request from its endpoint's TimeoutPolicy, feeds observed latencies
+// back into adaptive policies and reports timeouts to the TimeoutListener.
+class EndpointTimeouts {
+    private static final TimeoutPolicy DEFAULT_POLICY = TimeoutPolicy.fixed(BerbixApi.REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+    private final Map<BerbixEndpoint, TimeoutPolicy> policies = new EnumMap<>(BerbixEndpoint.class);
+    private final Map<BerbixEndpoint, LatencyPercentile> latencies = new EnumMap<>(BerbixEndpoint.class);
+    private final TimeoutListener listener;
+
+    EndpointTimeouts(Map<BerbixEndpoint, TimeoutPolicy> policies, TimeoutListener listener) {
+        for (BerbixEndpoint endpoint : BerbixEndpoint.values()) {
+            TimeoutPolicy policy = policies.get(endpoint);
+            if (policy == null) {
+                policy = DEFAULT_POLICY;
+            }
+            this.policies.put(endpoint, policy);
+            if (policy.percentile != 0) {
+                latencies.put(endpoint, new LatencyPercentile(policy.percentile));
+            }
+        }
+        this.listener = listener;
+    }
+
+    long timeoutNanos(BerbixEndpoint endpoint, long bodyBytes) {
+        return policies.get(endpoint).timeoutNanos(latencies.get(endpoint), bodyBytes);
+    }
+
+    // observe records how long the request took once completion completes, which should be when its response body
+    // has been read: the call timeout covers reading the body too. Timed out requests count as taking as long as they
+    // ran, so repeated timeouts raise an adaptive timeout towards its ceiling. A timeout only counts when the
+    // endpoint's timeout was the limit that applied, not the caller's shorter deadline.
+    <T> CompletableFuture<T> observe(BerbixEndpoint endpoint, long timeoutNanos, boolean limitedByTimeout, long bodyBytes,
+                                     long startNanos, CompletableFuture<T> completion) {
+        LatencyPercentile latency = latencies.get(endpoint);
+        if (latency == null && listener == null) {
+            return completion;
+        }
+
+        completion.whenComplete((result, ex) -> {
+            long elapsedNanos = System.nanoTime() - startNanos;
+            boolean timedOut = limitedByTimeout && ex != null && isTimeout(ex);
+            if (latency != null && (ex == null || timedOut)) {
+                latency.record(elapsedNanos);
+            }
+            if (timedOut && listener != null) {
+                listener.onTimeout(new TimeoutEvent(endpoint, TimeUnit.NANOSECONDS.toMillis(timeoutNanos),
+                        TimeUnit.NANOSECONDS.toMillis(elapsedNanos), bodyBytes));
+            }
+        });
+        return completion;
+    }
+
+    // isTimeout looks through the causes of ex, since a timeout while reading a body may reach here wrapped in a
+    // BerbixException.
+    private static boolean isTimeout(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof InterruptedIOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,47 @@
+package com.berbix;
+
+import java.util.concurrent.TimeUnit;
+
+// HedgingPolicy configures hedged reads: when an idempotent GET has not answered within the hedge delay,
+// a second attempt is sent and whichever answers first is used. The budget caps hedges at a fraction of
+// all hedgeable requests.
+public class HedgingPolicy {
+    public static final double DEFAULT_BUDGET = 0.05;
+
+    final long delayNanos;
+    // percentile is 0 for a fixed delay; otherwise the delay follows this percentile of observed latency,
+    // with delayNanos used until enough latencies have been observed.
+    final double percentile;
+    final double budget;
+
+    private HedgingPolicy(long delayNanos, double percentile, double budget) {
+        this.delayNanos = delayNanos;
+        this.percentile = percentile;
+        this.budget = budget;
+    }
+
+    public static HedgingPolicy fixedDelay(long delay, TimeUnit unit) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("delay must not be negative");
+        }
+        return new HedgingPolicy(unit.toNanos(delay), 0, DEFAULT_BUDGET);
+    }
+
+    public static HedgingPolicy percentile(double percentile, long initialDelay, TimeUnit unit) {
+        if (percentile <= 0 || percentile >= 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        if (initialDelay < 0) {
+            throw new IllegalArgumentException("initialDelay must not be negative");
+        }
+        return new HedgingPolicy(unit.toNanos(initialDelay), percentile, DEFAULT_BUDGET);
+    }
+
+    // withBudget returns a copy of this policy that hedges at most the given fraction of requests, e.g. 0.05.
+    public HedgingPolicy withBudget(double budget) {
+        if (budget <= 0 || budget > 1) {
+            throw new IllegalArgumentException("budget must be greater than 0 and at most 1");
+        }
+        return new HedgingPolicy(delayNanos, percentile, budget);
+    }
+}
@@ -0,0 +1,158 @@
+package com.berbix;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+// ImageDownloads downloads every image of a TransactionImagesSet into a directory, a bounded number at a time.
+class ImageDownloads {
+    // Largest slice handed to FileChannel.transferFrom in one call.
+    static final long CHUNK_SIZE = 1 << 20;
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private ImageDownloads() {
+    }
+
+    // download starts each image through the given function, which downloads one URL into a target. Files are named
+    // after the side and kind of the image, e.g. front_full_image.jpg, and written under a temporary name until
+    // complete.
+    static CompletableFuture<List<DownloadedImage>> download(Transaction.TransactionImagesSet images, Path directory,
+                                                              int maxConcurrency,
+                                                              Function<Download, CompletableFuture<Long>> downloader) {
+        List<DownloadedImage> pending = list(images);
+        AsyncLimiter limiter = new AsyncLimiter(maxConcurrency);
+        List<CompletableFuture<DownloadedImage>> futures = new ArrayList<>(pending.size());
+        for (DownloadedImage image : pending) {
+            futures.add(limiter.submit(() -> downloadTo(directory, image, downloader)));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            List<DownloadedImage> downloaded = new ArrayList<>(futures.size());
+            for (CompletableFuture<DownloadedImage> future : futures) {
+                downloaded.add(future.join());
+            }
+            return downloaded;
+        });
+    }
+
+    private static CompletableFuture<DownloadedImage> downloadTo(Path directory, DownloadedImage image,
+                                                                 Function<Download, CompletableFuture<Long>> downloader) {
+        String name = image.side + "_" + image.kind;
+        Path partial = directory.resolve(name + ".part");
+        ImageTarget target = (body, contentType) -> {
+            image.contentType = contentType;
+            return ImageTarget.path(partial).write(body, contentType);
+        };
+
+        return downloader.apply(new Download(image.url, target)).thenApply(bytes -> {
+            Path path = directory.resolve(name + extension(image.contentType));
+            try {
+                Files.move(partial, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new BerbixException("Unable to store image " + path, e);
+            }
+            image.path = path;
+            image.bytes = bytes;
+            return image;
+        });
+    }
+
+    private static List<DownloadedImage> list(Transaction.TransactionImagesSet images) {
+        List<DownloadedImage> list = new ArrayList<>();
+        if (images != null) {
+            add(list, "front", images.front);
+            add(list, "back", images.back);
+            add(list, "selfie", images.selfie);
+            add(list, "liveness", images.liveness);
+        }
+        return list;
+    }
+
+    private static void add(List<DownloadedImage> list, String side, Transaction.TransactionImages images) {
+        if (images == null) {
+            return;
+        }
+        add(list, side, "full_image", images.fullImage);
+        add(list, side, "face_image", images.faceImage);
+        add(list, side, "cropped_image", images.croppedImage);
+    }
+
+    private static void add(List<DownloadedImage> list, String side, String kind, String url) {
+        if (url == null || url.isEmpty()) {
+            return;
+        }
+        DownloadedImage image = new DownloadedImage();
+        image.side = side;
+        image.kind = kind;
+        image.url = url;
+        list.add(image);
+    }
+
+    private static String extension(String contentType) {
+        if (contentType == null) {
+            return "";
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        int parameters = type.indexOf(';');
+        if (parameters >= 0) {
+            type = type.substring(0, parameters);
+        }
+        switch (type.trim()) {
+            case "image/jpeg":
+            case "image/jpg":
+                return ".jpg";
+            case "image/png":
+                return ".png";
+            case "image/webp":
+                return ".webp";
+            case "image/gif":
+                return ".gif";
+            case "image/heic":
+                return ".heic";
+            default:
+                return "";
+        }
+    }
+
+    static long transfer(ReadableByteChannel body, FileChannel file) throws IOException {
+        long start = file.position();
+        long position = start;
+        long transferred;
+        while ((transferred = file.transferFrom(body, position, CHUNK_SIZE)) > 0) {
+            position += transferred;
+        }
+        file.position(position);
+        return position - start;
+    }
+
+    static long copy(ReadableByteChannel body, WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long written = 0;
+        while (body.read(buffer) >= 0 || buffer.position() > 0) {
+            buffer.flip();
+            written += channel.write(buffer);
+            buffer.compact();
+        }
+        return written;
+    }
+
+    static class Download {
+        final String url;
+        final ImageTarget target;
+
+        Download(String url, ImageTarget target) {
+            this.url = url;
+            this.target = target;
+        }
+    }
+}
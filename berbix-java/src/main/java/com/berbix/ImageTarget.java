@@ -0,0 +1,51 @@
+package com.berbix;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// ImageTarget is where a downloaded image is written. Images are streamed from the response a chunk at a time and are
+// never held in memory whole. Channels and streams passed in are written to but not closed.
+public interface ImageTarget {
+
+    // write copies the image from body and returns the number of bytes written.
+    long write(ReadableByteChannel body, String contentType) throws IOException;
+
+    // path writes to a file, replacing any existing one. The file is removed if the download fails part way through.
+    static ImageTarget path(Path path) {
+        return (body, contentType) -> {
+            boolean complete = false;
+            try (FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                long written = ImageDownloads.transfer(body, file);
+                complete = true;
+                return written;
+            } finally {
+                if (!complete) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        };
+    }
+
+    // channel writes to the channel at its current position. Writes into a FileChannel are handed to the file system
+    // with FileChannel.transferFrom rather than copied through an intermediate buffer.
+    static ImageTarget channel(WritableByteChannel channel) {
+        return (body, contentType) -> {
+            if (channel instanceof FileChannel) {
+                return ImageDownloads.transfer(body, (FileChannel) channel);
+            }
+            return ImageDownloads.copy(body, channel);
+        };
+    }
+
+    static ImageTarget stream(OutputStream stream) {
+        return (body, contentType) -> ImageDownloads.copy(body, Channels.newChannel(stream));
+    }
+}
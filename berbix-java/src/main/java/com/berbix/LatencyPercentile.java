@@ -0,0 +1,41 @@
+package com.berbix;
+
+import java.util.Arrays;
+
+// LatencyPercentile tracks a percentile over the most recent latencies. It reports 0 until enough latencies have
+// been recorded, and is recomputed every RECOMPUTE_INTERVAL samples rather than on every one.
+class LatencyPercentile {
+    private static final int SAMPLES = 1024;
+    private static final int MIN_SAMPLES = 100;
+    private static final int RECOMPUTE_INTERVAL = 64;
+
+    private final double percentile;
+    private final long[] latencies = new long[SAMPLES];
+    private long count;
+    private volatile long nanos;
+
+    LatencyPercentile(double percentile) {
+        this.percentile = percentile;
+    }
+
+    long nanos() {
+        return nanos;
+    }
+
+    void record(long latencyNanos) {
+        long[] snapshot = null;
+        synchronized (this) {
+            latencies[(int) (count % SAMPLES)] = latencyNanos;
+            count++;
+            if (count >= MIN_SAMPLES && count % RECOMPUTE_INTERVAL == 0) {
+                snapshot = Arrays.copyOf(latencies, (int) Math.min(count, SAMPLES));
+            }
+        }
+
+        if (snapshot != null) {
+            Arrays.sort(snapshot);
+            int index = (int) Math.ceil(percentile / 100 * snapshot.length) - 1;
+            nanos = snapshot[Math.max(0, index)];
+        }
+    }
+}
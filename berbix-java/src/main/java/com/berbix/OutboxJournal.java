@@ -0,0 +1,462 @@
+package com.berbix;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+// OutboxJournal is an append-only log of outbox entries kept in segment files of at most segmentSize bytes.
+// Records are written with positional channel writes rather than through a mapping, so a segment's file is
+// released as soon as its channel is closed and can be deleted without waiting for the GC to unmap it.
+//
+// Each record is [int payload length][byte type][long sequence][payload][int CRC32 of type, sequence and
+// payload]. An APPEND record holds an entry; a DONE record marks the entry with the same sequence as
+// finished. Scanning a segment stops at the first record that is zeroed, truncated or fails its CRC, which
+// is where a crash may have torn a write.
+//
+// Appends complete once their record has been forced to disk. A single flusher thread forces the active
+// segment for all appends that arrived since its last force, so concurrent appends share one fsync. The
+// flusher also writes the DONE records, so markDone, which runs on HTTP callback threads, never rolls or
+// forces a segment itself.
+//
+// Disk use is bounded by maxSegments. When the active segment fills up, leading segments without
+// pending entries are deleted, and a leading segment with only a few pending entries has them copied to
+// the new segment so that it can be deleted too. Segments are only ever deleted from the front, because a
+// segment may hold DONE records for entries in the segments before it.
+class OutboxJournal implements Closeable {
+    private static final byte TYPE_APPEND = 1;
+    private static final byte TYPE_DONE = 2;
+    private static final int HEADER_SIZE = 4 + 1 + 8;
+    private static final int TRAILER_SIZE = 4;
+    private static final String SEGMENT_PREFIX = "outbox-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final byte[] EMPTY = new byte[0];
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final LinkedHashMap<Long, PendingEntry> pending = new LinkedHashMap<>();
+    private Map<Long, byte[]> recovered;
+    private Segment active;
+    private long nextSequence;
+
+    private final List<CompletableFuture<Long>> awaitingForce = new ArrayList<>();
+    private final List<Long> awaitingForceSequences = new ArrayList<>();
+    private final List<Long> awaitingDone = new ArrayList<>();
+    private final Thread flusher;
+    private boolean closed;
+
+    private static class Segment {
+        final long id;
+        final Path path;
+        // channel is open while the segment is active, and null once it is sealed.
+        FileChannel channel;
+        int position;
+        int pendingCount;
+        int pendingBytes;
+
+        Segment(long id, Path path) {
+            this.id = id;
+            this.path = path;
+        }
+    }
+
+    private static class PendingEntry {
+        final byte[] payload;
+        long segmentId;
+
+        PendingEntry(byte[] payload, long segmentId) {
+            this.payload = payload;
+            this.segmentId = segmentId;
+        }
+    }
+
+    OutboxJournal(Path directory, int segmentSize, int maxSegments) throws IOException {
+        if (segmentSize < HEADER_SIZE + TRAILER_SIZE + 1024) {
+            throw new IllegalArgumentException("segmentSize is too small");
+        }
+        if (maxSegments < 2) {
+            throw new IllegalArgumentException("maxSegments must be at least 2");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+
+        Files.createDirectories(directory);
+        recover();
+        this.recovered = Collections.unmodifiableMap(pendingPayloads());
+
+        this.flusher = new Thread(this::flushLoop, "berbix-outbox-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    // takeRecovered returns the entries that were pending when the journal was opened, by sequence. The
+    // journal lets go of them, so later calls return an empty map.
+    synchronized Map<Long, byte[]> takeRecovered() {
+        Map<Long, byte[]> taken = recovered;
+        recovered = Collections.emptyMap();
+        return taken;
+    }
+
+    synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    CompletableFuture<Long> append(byte[] payload) {
+        CompletableFuture<Long> durable = new CompletableFuture<>();
+        synchronized (this) {
+            if (closed) {
+                throw new BerbixException("Outbox is closed");
+            }
+            // After a roll, compaction may already have used up to a quarter of the new segment.
+            if (HEADER_SIZE + payload.length + TRAILER_SIZE > segmentSize - segmentSize / 4) {
+                throw new BerbixException("Outbox entry of " + payload.length + " bytes does not fit in a segment");
+            }
+
+            long sequence = nextSequence++;
+            writeRecord(TYPE_APPEND, sequence, payload);
+            addPending(sequence, payload, active);
+
+            awaitingForce.add(durable);
+            awaitingForceSequences.add(sequence);
+            notifyAll();
+        }
+        return durable;
+    }
+
+    // markDone records that an entry has been handled. The DONE record is written by the flusher and not
+    // waited for; if it is lost in a crash, the entry is replayed once more.
+    synchronized void markDone(long sequence) {
+        PendingEntry entry = pending.remove(sequence);
+        if (entry == null || closed) {
+            return;
+        }
+
+        Segment segment = segments.get(entry.segmentId);
+        if (segment != null) {
+            segment.pendingCount--;
+            segment.pendingBytes -= entry.payload.length;
+        }
+
+        awaitingDone.add(sequence);
+        notifyAll();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            active.channel.force(false);
+            active.channel.close();
+            active.channel = null;
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Long> ids = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    ids.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of our segments.
+                }
+            }
+        }
+        Collections.sort(ids);
+
+        for (Long id : ids) {
+            Segment segment = new Segment(id, segmentPath(id));
+            segments.put(id, segment);
+            scan(segment, read(segment.path));
+        }
+
+        if (segments.isEmpty()) {
+            active = createSegment(0);
+        } else {
+            active = segments.lastEntry().getValue();
+            active.channel = open(active.path);
+            // Cut off whatever a torn write left behind the last valid record, so it can never be mistaken for one.
+            active.channel.truncate(active.position);
+            active.channel.force(false);
+        }
+    }
+
+    private ByteBuffer read(Path path) throws IOException {
+        // Bytes past the end of the file read as zero, which ends the scan.
+        ByteBuffer buffer = ByteBuffer.allocate(segmentSize);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+        }
+        return buffer;
+    }
+
+    private void scan(Segment segment, ByteBuffer buffer) {
+        int position = 0;
+
+        while (position + HEADER_SIZE + TRAILER_SIZE <= segmentSize) {
+            int length = buffer.getInt(position);
+            byte type = buffer.get(position + 4);
+            if ((type != TYPE_APPEND && type != TYPE_DONE) || length < 0 || length > segmentSize - position - HEADER_SIZE - TRAILER_SIZE) {
+                break;
+            }
+
+            long sequence = buffer.getLong(position + 5);
+            byte[] payload = new byte[length];
+            ByteBuffer view = buffer.duplicate();
+            view.position(position + HEADER_SIZE);
+            view.get(payload);
+            if (buffer.getInt(position + HEADER_SIZE + length) != checksum(type, sequence, payload)) {
+                break;
+            }
+
+            if (type == TYPE_APPEND) {
+                PendingEntry previous = pending.remove(sequence);
+                if (previous != null) {
+                    // The entry was copied forward during compaction; the newer copy is the one that counts.
+                    Segment previousSegment = segments.get(previous.segmentId);
+                    previousSegment.pendingCount--;
+                    previousSegment.pendingBytes -= previous.payload.length;
+                }
+                addPending(sequence, payload, segment);
+            } else {
+                PendingEntry entry = pending.remove(sequence);
+                if (entry != null) {
+                    Segment entrySegment = segments.get(entry.segmentId);
+                    entrySegment.pendingCount--;
+                    entrySegment.pendingBytes -= entry.payload.length;
+                }
+            }
+
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            position += HEADER_SIZE + length + TRAILER_SIZE;
+        }
+
+        segment.position = position;
+    }
+
+    private void addPending(long sequence, byte[] payload, Segment segment) {
+        pending.put(sequence, new PendingEntry(payload, segment.id));
+        segment.pendingCount++;
+        segment.pendingBytes += payload.length;
+    }
+
+    private Map<Long, byte[]> pendingPayloads() {
+        Map<Long, byte[]> payloads = new LinkedHashMap<>();
+        for (Map.Entry<Long, PendingEntry> entry : pending.entrySet()) {
+            payloads.put(entry.getKey(), entry.getValue().payload);
+        }
+        return payloads;
+    }
+
+    private void writeRecord(byte type, long sequence, byte[] payload) {
+        int size = HEADER_SIZE + payload.length + TRAILER_SIZE;
+        if (active.position + size > segmentSize) {
+            roll();
+            if (active.position + size > segmentSize) {
+                throw new BerbixException("Outbox entry of " + payload.length + " bytes does not fit in a segment");
+            }
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(size);
+        record.putInt(payload.length);
+        record.put(type);
+        record.putLong(sequence);
+        record.put(payload);
+        record.putInt(checksum(type, sequence, payload));
+        record.flip();
+
+        int position = active.position;
+        try {
+            while (record.hasRemaining()) {
+                active.channel.write(record, position + record.position());
+            }
+        } catch (IOException e) {
+            throw new BerbixException("Unable to write outbox entry", e);
+        }
+        active.position = position + size;
+    }
+
+    private void roll() {
+        // Records in the segment being sealed must be durable before appends move on to the next one.
+        Segment sealed = active;
+        try {
+            sealed.channel.force(false);
+        } catch (IOException e) {
+            throw new BerbixException("Unable to write outbox entry", e);
+        }
+
+        deleteLeadingDoneSegments();
+        if (segments.size() >= maxSegments) {
+            throw new BerbixException("Outbox is full");
+        }
+
+        try {
+            active = createSegment(sealed.id + 1);
+            sealed.channel.close();
+        } catch (IOException e) {
+            throw new BerbixException("Unable to create outbox segment", e);
+        }
+        sealed.channel = null;
+
+        compactOldest();
+    }
+
+    private void deleteLeadingDoneSegments() {
+        while (segments.size() > 1) {
+            Segment oldest = segments.firstEntry().getValue();
+            if (oldest == active || oldest.pendingCount > 0) {
+                return;
+            }
+            segments.remove(oldest.id);
+            try {
+                Files.deleteIfExists(oldest.path);
+            } catch (IOException e) {
+                throw new BerbixException("Unable to delete outbox segment " + oldest.path, e);
+            }
+        }
+    }
+
+    private void compactOldest() {
+        Segment oldest = segments.firstEntry().getValue();
+        long copySize = oldest.pendingBytes + (long) oldest.pendingCount * (HEADER_SIZE + TRAILER_SIZE);
+        if (oldest == active || copySize > segmentSize / 4) {
+            return;
+        }
+
+        for (Map.Entry<Long, PendingEntry> entry : pending.entrySet()) {
+            PendingEntry pendingEntry = entry.getValue();
+            if (pendingEntry.segmentId == oldest.id) {
+                writeRecord(TYPE_APPEND, entry.getKey(), pendingEntry.payload);
+                pendingEntry.segmentId = active.id;
+                oldest.pendingCount--;
+                oldest.pendingBytes -= pendingEntry.payload.length;
+                active.pendingCount++;
+                active.pendingBytes += pendingEntry.payload.length;
+            }
+        }
+
+        // The copies must be on disk before the originals go away.
+        try {
+            active.channel.force(false);
+        } catch (IOException e) {
+            throw new BerbixException("Unable to write outbox entry", e);
+        }
+        deleteLeadingDoneSegments();
+    }
+
+    private Segment createSegment(long id) throws IOException {
+        Segment segment = new Segment(id, segmentPath(id));
+        segment.channel = open(segment.path);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    private void flushLoop() {
+        while (true) {
+            List<CompletableFuture<Long>> batch;
+            List<Long> sequences;
+            FileChannel channel;
+
+            synchronized (this) {
+                while (awaitingForce.isEmpty() && awaitingDone.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        closed = true;
+                    }
+                }
+                writeDoneRecords();
+                if (awaitingForce.isEmpty()) {
+                    if (closed) {
+                        return;
+                    }
+                    continue;
+                }
+                batch = new ArrayList<>(awaitingForce);
+                sequences = new ArrayList<>(awaitingForceSequences);
+                awaitingForce.clear();
+                awaitingForceSequences.clear();
+                channel = active.channel;
+            }
+
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // The segment was sealed in the meantime, and sealing forced it.
+            } catch (IOException e) {
+                BerbixException failure = new BerbixException("Unable to write outbox entry", e);
+                for (CompletableFuture<Long> future : batch) {
+                    future.completeExceptionally(failure);
+                }
+                continue;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).complete(sequences.get(i));
+            }
+        }
+    }
+
+    private void writeDoneRecords() {
+        for (Long sequence : awaitingDone) {
+            try {
+                writeRecord(TYPE_DONE, sequence, EMPTY);
+            } catch (BerbixException e) {
+                // The outbox is full or the write failed; the entry stays on disk and will be replayed.
+            }
+        }
+        awaitingDone.clear();
+    }
+
+    private static int checksum(byte type, long sequence, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (sequence >>> shift));
+        }
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+}
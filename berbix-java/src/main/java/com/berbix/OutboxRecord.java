@@ -0,0 +1,12 @@
+package com.berbix;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+// OutboxRecord is the JSON payload of an outbox journal entry.
+class OutboxRecord {
+    public BerbixOutbox.Operation operation;
+    public String idempotencyKey;
+    public String refreshToken;
+    public Long transactionId;
+    public JsonNode request;
+}
@@ -0,0 +1,26 @@
+package com.berbix;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+public interface RequestCodec {
+    RequestCodec GZIP = new RequestCodec() {
+        @Override
+        public String encoding() {
+            return "gzip";
+        }
+
+        @Override
+        public OutputStream encode(OutputStream out) throws IOException {
+            return new GZIPOutputStream(out, 8192);
+        }
+    };
+
+    // encoding is sent as the Content-Encoding header of compressed requests.
+    String encoding();
+
+    // encode wraps out; closing the returned stream must finish the encoding and close out. The SDK never passes
+    // a stream that has to stay open.
+    OutputStream encode(OutputStream out) throws IOException;
+}
@@ -0,0 +1,27 @@
+package com.berbix;
+
+public class RequestCompression {
+    public static final long DEFAULT_MINIMUM_SIZE = 16 * 1024;
+
+    final RequestCodec codec;
+    final long minimumSize;
+
+    public RequestCompression(RequestCodec codec, long minimumSize) {
+        if (codec == null) {
+            throw new IllegalArgumentException("codec must not be null");
+        }
+        if (minimumSize < 0) {
+            throw new IllegalArgumentException("minimumSize must not be negative");
+        }
+        this.codec = codec;
+        this.minimumSize = minimumSize;
+    }
+
+    public static RequestCompression gzip() {
+        return new RequestCompression(RequestCodec.GZIP, DEFAULT_MINIMUM_SIZE);
+    }
+
+    public static RequestCompression gzip(long minimumSize) {
+        return new RequestCompression(RequestCodec.GZIP, minimumSize);
+    }
+}
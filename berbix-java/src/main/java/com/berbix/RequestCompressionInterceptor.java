@@ -0,0 +1,111 @@
+package com.berbix;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.Okio;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+class RequestCompressionInterceptor implements Interceptor {
+    private static final int BAD_REQUEST = 400;
+    private static final int UNSUPPORTED_MEDIA_TYPE = 415;
+
+    private final RequestCompression compression;
+    // Set once the server has refused an encoded body; every later request is sent as is.
+    private volatile boolean rejected;
+    // Set once the server is known to read encoded bodies, or once a 400 has been probed with a plain body. Either
+    // way a later 400 is not resent, so a large upload that is simply invalid costs one upload, not two.
+    private final AtomicBoolean settled = new AtomicBoolean();
+
+    RequestCompressionInterceptor(RequestCompression compression) {
+        this.compression = compression;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        RequestBody body = request.body();
+
+        if (rejected
+                || body == null
+                || request.header("Content-Encoding") != null
+                || body.contentLength() < compression.minimumSize) {
+            return chain.proceed(request);
+        }
+
+        Request compressedRequest = request.newBuilder()
+                .header("Content-Encoding", compression.codec.encoding())
+                .method(request.method(), new CompressedRequestBody(body, compression.codec))
+                .build();
+
+        Response response = chain.proceed(compressedRequest);
+        if (response.code() == UNSUPPORTED_MEDIA_TYPE) {
+            rejected = true;
+            response.close();
+            return chain.proceed(request);
+        }
+        if (response.isSuccessful()) {
+            settled.set(true);
+        }
+        if (response.code() != BAD_REQUEST || !settled.compareAndSet(false, true)) {
+            return response;
+        }
+
+        // Some servers answer an encoding they cannot read with 400 rather than 415. The first 400 before any
+        // encoded request has succeeded is resent plain, once per client. Only when the plain body is accepted is
+        // the 400 put down to the encoding; otherwise it was about the request itself, and the encoding is kept.
+        response.close();
+        Response plainResponse = chain.proceed(request);
+        if (plainResponse.code() != BAD_REQUEST) {
+            rejected = true;
+        }
+        return plainResponse;
+    }
+
+    static class CompressedRequestBody extends RequestBody {
+        private final RequestBody delegate;
+        private final RequestCodec codec;
+
+        CompressedRequestBody(RequestBody delegate, RequestCodec codec) {
+            this.delegate = delegate;
+            this.codec = codec;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            // The encoded length is unknown until the body has been written, so it is sent chunked.
+            return -1;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            // The sink belongs to OkHttp; closing the encoded stream must finish the encoding but leave it open.
+            OutputStream unclosable = new FilterOutputStream(sink.outputStream()) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+            BufferedSink encodedSink = Okio.buffer(Okio.sink(codec.encode(unclosable)));
+            delegate.writeTo(encodedSink);
+            encodedSink.close();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.berbix;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+class RequestHedger {
+    // Caps how many hedges can be saved up while latency is good and spent at once when it is not.
+    private static final double MAX_BUDGET_TOKENS = 10;
+
+    private final HedgingPolicy policy;
+    private final Call.Factory callFactory;
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    // Only set for percentile policies.
+    private final LatencyPercentile latency;
+    private double budgetTokens;
+
+    RequestHedger(HedgingPolicy policy, Call.Factory callFactory) {
+        this.policy = policy;
+        this.callFactory = callFactory;
+        this.latency = policy.percentile != 0 ? new LatencyPercentile(policy.percentile) : null;
+        this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "berbix-hedging");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    CompletableFuture<Response> execute(Request request, CallContext context, long timeoutNanos) {
+        depositBudget();
+        Hedge hedge = new Hedge(request, context, timeoutNanos);
+        hedge.start();
+        return hedge.result;
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private long delayNanos() {
+        long observed = latency != null ? latency.nanos() : 0;
+        return observed > 0 ? observed : policy.delayNanos;
+    }
+
+    private synchronized void depositBudget() {
+        budgetTokens = Math.min(MAX_BUDGET_TOKENS, budgetTokens + policy.budget);
+    }
+
+    private synchronized boolean tryAcquireBudget() {
+        if (budgetTokens < 1) {
+            return false;
+        }
+        budgetTokens -= 1;
+        return true;
+    }
+
+    private void recordLatency(long nanos) {
+        if (latency != null) {
+            latency.record(nanos);
+        }
+    }
+
+    private class Hedge {
+        final CompletableFuture<Response> result = new CompletableFuture<>();
+        private final Request request;
+        private final CallContext context;
+        private final long timeoutNanos;
+        private final List<Call> calls = new ArrayList<>(2);
+        private int pending;
+        private ScheduledFuture<?> timer;
+
+        Hedge(Request request, CallContext context, long timeoutNanos) {
+            this.request = request;
+            this.context = context;
+            this.timeoutNanos = timeoutNanos;
+        }
+
+        void start() {
+            synchronized (this) {
+                pending++;
+            }
+            attempt();
+
+            synchronized (this) {
+                if (!result.isDone()) {
+                    timer = scheduler.schedule(this::hedge, delayNanos(), TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+
+        private void hedge() {
+            synchronized (this) {
+                if (result.isDone() || !tryAcquireBudget()) {
+                    return;
+                }
+                pending++;
+            }
+            attempt();
+        }
+
+        private void attempt() {
+            Call call = callFactory.newCall(request);
+            try {
+                context.attach(call, timeoutNanos);
+            } catch (IOException e) {
+                failed(e);
+                return;
+            }
+
+            synchronized (this) {
+                calls.add(call);
+            }
+
+            long startNanos = System.nanoTime();
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    failed(e);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    succeeded(call, response, System.nanoTime() - startNanos);
+                }
+            });
+        }
+
+        private void succeeded(Call call, Response response, long latencyNanos) {
+            recordLatency(latencyNanos);
+            if (!result.complete(response)) {
+                // The other attempt already won.
+                response.close();
+                return;
+            }
+
+            List<Call> losers;
+            synchronized (this) {
+                if (timer != null) {
+                    timer.cancel(false);
+                }
+                losers = new ArrayList<>(calls);
+            }
+            for (Call other : losers) {
+                if (other != call) {
+                    other.cancel();
+                }
+            }
+        }
+
+        private void failed(IOException e) {
+            synchronized (this) {
+                pending--;
+                if (pending > 0) {
+                    // Another attempt is still running and may yet succeed.
+                    return;
+                }
+                if (timer != null) {
+                    timer.cancel(false);
+                }
+            }
+            result.completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.berbix;
+
+import java.util.concurrent.TimeUnit;
+
+// TenantQuota limits the calls of one tenant of a BerbixClientRegistry: how many may run at once, and
+// how many may start per second. Calls over the concurrency limit wait, up to maxQueued of them; calls over
+// the rate or beyond a full queue are rejected.
+class TenantQuota {
+    final AsyncLimiter concurrency;
+    private final int maxQueued;
+    private final double permitsPerSecond;
+    private final double burst;
+    private double permits;
+    private long lastRefillNanos;
+
+    TenantQuota(int maxConcurrentRequests, int maxQueuedRequests, double maxRequestsPerSecond) {
+        this.concurrency = maxConcurrentRequests > 0 ? new AsyncLimiter(maxConcurrentRequests) : null;
+        this.maxQueued = maxQueuedRequests;
+        this.permitsPerSecond = maxRequestsPerSecond;
+        this.burst = Math.max(1, maxRequestsPerSecond);
+        this.permits = burst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    // queueFull reports whether a call would have to wait behind maxQueued others. Calls racing past the check
+    // together may queue a few more than that.
+    boolean queueFull() {
+        return concurrency != null && concurrency.running() >= concurrency.limit() && concurrency.queued() >= maxQueued;
+    }
+
+    boolean idle() {
+        return concurrency == null || concurrency.running() == 0 && concurrency.queued() == 0;
+    }
+
+    // tryAcquire takes a rate permit, returning 0 on success or else the milliseconds until one is available.
+    synchronized long tryAcquire() {
+        if (permitsPerSecond <= 0) {
+            return 0;
+        }
+
+        long now = System.nanoTime();
+        permits = Math.min(burst, permits + (now - lastRefillNanos) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = now;
+
+        if (permits >= 1) {
+            permits -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - permits) * 1000 / permitsPerSecond));
+    }
+}
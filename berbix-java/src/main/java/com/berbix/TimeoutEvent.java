@@ -0,0 +1,18 @@
+package com.berbix;
+
+// TimeoutEvent describes a request that timed out, either on its endpoint's timeout or on the deadline of its call.
+public class TimeoutEvent {
+    public final BerbixEndpoint endpoint;
+    // timeoutMillis is the endpoint timeout that applied to the request.
+    public final long timeoutMillis;
+    public final long elapsedMillis;
+    // bodyBytes is the size of the request body, or -1 if it has none or its size is unknown.
+    public final long bodyBytes;
+
+    TimeoutEvent(BerbixEndpoint endpoint, long timeoutMillis, long elapsedMillis, long bodyBytes) {
+        this.endpoint = endpoint;
+        this.timeoutMillis = timeoutMillis;
+        this.elapsedMillis = elapsedMillis;
+        this.bodyBytes = bodyBytes;
+    }
+}
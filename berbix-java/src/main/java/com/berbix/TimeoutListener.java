@@ -0,0 +1,7 @@
+package com.berbix;
+
+// TimeoutListener is told about every request that hits its endpoint's timeout. It is called on an HTTP client
+// thread and should return quickly.
+public interface TimeoutListener {
+    void onTimeout(TimeoutEvent event);
+}
@@ -0,0 +1,72 @@
+package com.berbix;
+
+import java.util.concurrent.TimeUnit;
+
+// TimeoutPolicy sets how long a request to an endpoint may take. The timeout is fixed, or adapts to a percentile of
+// the endpoint's observed latency times a multiplier, kept between a floor and a ceiling. Until enough latencies
+// have been observed an adaptive timeout uses its ceiling. Requests with a body can be given extra time per
+// megabyte on top, e.g. for image uploads.
+public class TimeoutPolicy {
+    final long timeoutNanos;
+    // percentile is 0 for a fixed timeout.
+    final double percentile;
+    final double multiplier;
+    final long floorNanos;
+    final long ceilingNanos;
+    final long nanosPerMegabyte;
+
+    private TimeoutPolicy(long timeoutNanos, double percentile, double multiplier, long floorNanos, long ceilingNanos,
+                          long nanosPerMegabyte) {
+        this.timeoutNanos = timeoutNanos;
+        this.percentile = percentile;
+        this.multiplier = multiplier;
+        this.floorNanos = floorNanos;
+        this.ceilingNanos = ceilingNanos;
+        this.nanosPerMegabyte = nanosPerMegabyte;
+    }
+
+    public static TimeoutPolicy fixed(long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout must be positive");
+        }
+        return new TimeoutPolicy(unit.toNanos(timeout), 0, 0, 0, 0, 0);
+    }
+
+    // adaptive times requests out after multiplier times the given percentile of recent latencies, bounded by
+    // floor and ceiling. For example adaptive(99, 3, 250, 5000, MILLISECONDS) allows three times the p99 latency,
+    // but never less than 250ms or more than 5s.
+    public static TimeoutPolicy adaptive(double percentile, double multiplier, long floor, long ceiling, TimeUnit unit) {
+        if (percentile <= 0 || percentile >= 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        if (multiplier < 1) {
+            throw new IllegalArgumentException("multiplier must be at least 1");
+        }
+        if (floor <= 0 || ceiling < floor) {
+            throw new IllegalArgumentException("floor must be positive and no greater than ceiling");
+        }
+        return new TimeoutPolicy(unit.toNanos(ceiling), percentile, multiplier, unit.toNanos(floor), unit.toNanos(ceiling), 0);
+    }
+
+    // withBodyScaling returns a copy of this policy that allows the given extra time per megabyte of request body.
+    public TimeoutPolicy withBodyScaling(long perMegabyte, TimeUnit unit) {
+        if (perMegabyte < 0) {
+            throw new IllegalArgumentException("perMegabyte must not be negative");
+        }
+        return new TimeoutPolicy(timeoutNanos, percentile, multiplier, floorNanos, ceilingNanos, unit.toNanos(perMegabyte));
+    }
+
+    long timeoutNanos(LatencyPercentile latency, long bodyBytes) {
+        long nanos = timeoutNanos;
+        if (percentile != 0) {
+            long observed = latency.nanos();
+            if (observed > 0) {
+                nanos = Math.max(floorNanos, Math.min(ceilingNanos, (long) (observed * multiplier)));
+            }
+        }
+        if (nanosPerMegabyte > 0 && bodyBytes > 0) {
+            nanos += (long) ((double) bodyBytes / (1 << 20) * nanosPerMegabyte);
+        }
+        return nanos;
+    }
+}
@@ -0,0 +1,46 @@
+package com.berbix;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+// TokenHolder holds the current TokenSnapshot of a transaction. Refreshes swap the whole snapshot at once,
+// so readers always see an access token together with its own expiry.
+public class TokenHolder {
+    private final AtomicReference<TokenSnapshot> current;
+    private final AtomicReference<CompletableFuture<TokenSnapshot>> refreshing = new AtomicReference<>();
+
+    public TokenHolder(TokenSnapshot initial) {
+        this.current = new AtomicReference<>(initial);
+    }
+
+    public TokenSnapshot current() {
+        return current.get();
+    }
+
+    public boolean needsRefresh(long skewNanos) {
+        TokenSnapshot snapshot = current.get();
+        return snapshot == null || snapshot.needsRefresh(skewNanos);
+    }
+
+    public void update(TokenSnapshot snapshot) {
+        current.set(snapshot);
+    }
+
+    // joinRefresh returns the refresh already in flight for these tokens, or registers refresh as the one in flight
+    // and returns it. Concurrent calls that find the tokens expired so share a single refresh.
+    CompletableFuture<TokenSnapshot> joinRefresh(CompletableFuture<TokenSnapshot> refresh) {
+        while (true) {
+            CompletableFuture<TokenSnapshot> inFlight = refreshing.get();
+            if (inFlight != null && !inFlight.isDone()) {
+                return inFlight;
+            }
+            if (refreshing.compareAndSet(inFlight, refresh)) {
+                return refresh;
+            }
+        }
+    }
+
+    void refreshDone(CompletableFuture<TokenSnapshot> refresh) {
+        refreshing.compareAndSet(refresh, null);
+    }
+}
@@ -0,0 +1,56 @@
+package com.berbix;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+
+// TokenSnapshot is an immutable, consistent view of a transaction's tokens.
+public final class TokenSnapshot {
+    // Far enough out that it never needs refreshing, while leaving room to subtract a skew.
+    private static final long MAX_REMAINING_NANOS = Long.MAX_VALUE / 4;
+
+    public final String accessToken;
+    public final String clientToken;
+    public final String refreshToken;
+    public final Long transactionId;
+    public final ZonedDateTime expiresAt;
+    public final String responseJsonString;
+
+    // expiresAtNanos is expiresAt on the System.nanoTime() clock; only meaningful when hasExpiry is set.
+    final long expiresAtNanos;
+    final boolean hasExpiry;
+
+    TokenSnapshot(String accessToken, String clientToken, String refreshToken, Long transactionId,
+                  ZonedDateTime expiresAt, long expiresAtNanos, boolean hasExpiry, String responseJsonString) {
+        this.accessToken = accessToken;
+        this.clientToken = clientToken;
+        this.refreshToken = refreshToken;
+        this.transactionId = transactionId;
+        this.expiresAt = expiresAt;
+        this.expiresAtNanos = expiresAtNanos;
+        this.hasExpiry = hasExpiry;
+        this.responseJsonString = responseJsonString;
+    }
+
+    static TokenSnapshot of(String accessToken, String clientToken, String refreshToken, Long transactionId,
+                            ZonedDateTime expiresAt, String responseJsonString) {
+        if (expiresAt == null) {
+            return new TokenSnapshot(accessToken, clientToken, refreshToken, transactionId, null, 0, false, responseJsonString);
+        }
+
+        long remainingNanos;
+        try {
+            remainingNanos = Duration.between(ZonedDateTime.now(expiresAt.getZone()), expiresAt).toNanos();
+        } catch (ArithmeticException e) {
+            remainingNanos = expiresAt.isAfter(ZonedDateTime.now(expiresAt.getZone())) ? MAX_REMAINING_NANOS : -MAX_REMAINING_NANOS;
+        }
+        remainingNanos = Math.max(-MAX_REMAINING_NANOS, Math.min(MAX_REMAINING_NANOS, remainingNanos));
+
+        return new TokenSnapshot(accessToken, clientToken, refreshToken, transactionId, expiresAt,
+                System.nanoTime() + remainingNanos, true, responseJsonString);
+    }
+
+    // needsRefresh reports whether the tokens expire within skewNanos. It does not allocate.
+    public boolean needsRefresh(long skewNanos) {
+        return accessToken == null || !hasExpiry || System.nanoTime() - (expiresAtNanos - skewNanos) >= 0;
+    }
+}
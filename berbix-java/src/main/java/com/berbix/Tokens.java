@@ -1,7 +1,11 @@
 package com.berbix;
 
 import java.time.ZonedDateTime;
+import java.util.Objects;
 
+// Tokens keeps the public mutable fields of earlier versions of the SDK. The SDK itself works from the
+// TokenHolder behind it; the fields are a copy of its latest snapshot for existing callers. Fields changed by
+// the caller replace the snapshot the next time it is read.
 public class Tokens {
   public String accessToken;
 
@@ -15,15 +19,80 @@ public class Tokens {
 
   public String responseJsonString;
 
+  private volatile TokenHolder holder;
+
   public boolean needsRefresh() {
-    return expiresAt == null || expiresAt.isBefore(ZonedDateTime.now());
+    return snapshot().needsRefresh(0);
   }
 
   public void refresh(Tokens newTokens) {
-    accessToken = newTokens.accessToken;
-    clientToken = newTokens.clientToken;
-    transactionId = newTokens.transactionId;
-    expiresAt = newTokens.expiresAt;
+    TokenSnapshot refreshed = newTokens.snapshot();
+    // Holding the lock keeps snapshot() from seeing the fields half updated and rebuilding from them.
+    synchronized (this) {
+      TokenSnapshot current = snapshot();
+      // A refresh replaces the short-lived tokens only; the refresh token and original response are kept.
+      holder().update(new TokenSnapshot(refreshed.accessToken, refreshed.clientToken, current.refreshToken,
+          refreshed.transactionId, refreshed.expiresAt, refreshed.expiresAtNanos, refreshed.hasExpiry,
+          current.responseJsonString));
+
+      accessToken = refreshed.accessToken;
+      clientToken = refreshed.clientToken;
+      transactionId = refreshed.transactionId;
+      expiresAt = refreshed.expiresAt;
+    }
+  }
+
+  public TokenSnapshot snapshot() {
+    TokenSnapshot current = holder().current();
+    if (matchesFields(current)) {
+      return current;
+    }
+    synchronized (this) {
+      current = holder.current();
+      if (matchesFields(current)) {
+        return current;
+      }
+      // The caller has changed the fields since the last snapshot; they take effect from here on.
+      TokenSnapshot updated = TokenSnapshot.of(accessToken, clientToken, refreshToken, transactionId, expiresAt, responseJsonString);
+      holder.update(updated);
+      return updated;
+    }
+  }
+
+  private boolean matchesFields(TokenSnapshot snapshot) {
+    return Objects.equals(accessToken, snapshot.accessToken)
+        && Objects.equals(clientToken, snapshot.clientToken)
+        && Objects.equals(refreshToken, snapshot.refreshToken)
+        && Objects.equals(transactionId, snapshot.transactionId)
+        && Objects.equals(expiresAt, snapshot.expiresAt)
+        && Objects.equals(responseJsonString, snapshot.responseJsonString);
+  }
+
+  public TokenHolder holder() {
+    TokenHolder current = holder;
+    if (current == null) {
+      synchronized (this) {
+        current = holder;
+        if (current == null) {
+          // Tokens built field by field, e.g. restored from a database, get their snapshot on first use.
+          current = new TokenHolder(TokenSnapshot.of(accessToken, clientToken, refreshToken, transactionId, expiresAt, responseJsonString));
+          holder = current;
+        }
+      }
+    }
+    return current;
+  }
+
+  static Tokens fromSnapshot(TokenSnapshot snapshot) {
+    Tokens tokens = new Tokens();
+    tokens.accessToken = snapshot.accessToken;
+    tokens.clientToken = snapshot.clientToken;
+    tokens.refreshToken = snapshot.refreshToken;
+    tokens.transactionId = snapshot.transactionId;
+    tokens.expiresAt = snapshot.expiresAt;
+    tokens.responseJsonString = snapshot.responseJsonString;
+    tokens.holder = new TokenHolder(snapshot);
+    return tokens;
   }
 
   public static Tokens fromRefresh(String refreshToken) {
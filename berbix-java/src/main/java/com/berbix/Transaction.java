@@ -1,6 +1,7 @@
 package com.berbix;
 
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Transaction {
@@ -17,9 +18,39 @@ public class Transaction {
   public String implementationInfo;
   public TransactionImagesSet images;
 
+  // copy returns a deep copy, so that a transaction handed to several callers can be changed by each of them.
+  public Transaction copy() {
+    Transaction copy = new Transaction();
+    copy.action = action;
+    copy.completedAt = completedAt;
+    copy.createdAt = createdAt;
+    copy.customerUid = customerUid;
+    copy.dashboardUrl = dashboardUrl;
+    if (duplicates != null) {
+      copy.duplicates = new ArrayList<>(duplicates.size());
+      for (Duplicate duplicate : duplicates) {
+        copy.duplicates.add(duplicate == null ? null : duplicate.copy());
+      }
+    }
+    copy.entity = entity;
+    copy.fields = fields == null ? null : fields.copy();
+    copy.flags = flags == null ? null : new ArrayList<>(flags);
+    copy.id = id;
+    copy.implementationInfo = implementationInfo;
+    copy.images = images == null ? null : images.copy();
+    return copy;
+  }
+
   public static class Duplicate {
     public String customerUid;
     public Long transactionId;
+
+    Duplicate copy() {
+      Duplicate copy = new Duplicate();
+      copy.customerUid = customerUid;
+      copy.transactionId = transactionId;
+      return copy;
+    }
   }
 
   public static class Fields {
@@ -44,15 +75,65 @@ public class Transaction {
     public FieldEntry phoneNumber;
     public FieldEntry sex;
 
+    Fields copy() {
+      Fields copy = new Fields();
+      copy.addressCity = copy(addressCity);
+      copy.addressCountry = copy(addressCountry);
+      copy.addressPostalCode = copy(addressPostalCode);
+      copy.addressStreet = copy(addressStreet);
+      copy.addressSubdivision = copy(addressSubdivision);
+      copy.addressUnit = copy(addressUnit);
+      copy.age = copy(age);
+      copy.dateOfBirth = copy(dateOfBirth);
+      copy.emailAddress = copy(emailAddress);
+      copy.familyName = copy(familyName);
+      copy.givenName = copy(givenName);
+      copy.idExpiryDate = copy(idExpiryDate);
+      copy.idIssueDate = copy(idIssueDate);
+      copy.idIssuer = copy(idIssuer);
+      copy.idNumber = copy(idNumber);
+      copy.idType = copy(idType);
+      copy.middleName = copy(middleName);
+      copy.nationality = copy(nationality);
+      copy.phoneNumber = copy(phoneNumber);
+      copy.sex = copy(sex);
+      return copy;
+    }
+
+    private static FieldEntry copy(FieldEntry fieldEntry) {
+      return fieldEntry == null ? null : fieldEntry.copy();
+    }
+
     public static class FieldEntry {
       public String confidence;
       public List<Source> sources;
       public String value;
 
+      FieldEntry copy() {
+        FieldEntry copy = new FieldEntry();
+        copy.confidence = confidence;
+        if (sources != null) {
+          copy.sources = new ArrayList<>(sources.size());
+          for (Source source : sources) {
+            copy.sources.add(source == null ? null : source.copy());
+          }
+        }
+        copy.value = value;
+        return copy;
+      }
+
       public static class Source {
         public String confidence;
         public String type;
         public String value;
+
+        Source copy() {
+          Source copy = new Source();
+          copy.confidence = confidence;
+          copy.type = type;
+          copy.value = value;
+          return copy;
+        }
       }
     }
   }
@@ -62,11 +143,28 @@ public class Transaction {
     public TransactionImages back;
     public TransactionImages selfie;
     public TransactionImages liveness;
+
+    TransactionImagesSet copy() {
+      TransactionImagesSet copy = new TransactionImagesSet();
+      copy.front = front == null ? null : front.copy();
+      copy.back = back == null ? null : back.copy();
+      copy.selfie = selfie == null ? null : selfie.copy();
+      copy.liveness = liveness == null ? null : liveness.copy();
+      return copy;
+    }
   }
 
   public static class TransactionImages {
     public String fullImage;
     public String faceImage;
     public String croppedImage;
+
+    TransactionImages copy() {
+      TransactionImages copy = new TransactionImages();
+      copy.fullImage = fullImage;
+      copy.faceImage = faceImage;
+      copy.croppedImage = croppedImage;
+      return copy;
+    }
   }
 }
@@ -0,0 +1,395 @@
+package com.berbix;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+// TransactionExport fetches the transactions of a stream of tokens and writes them as newline-delimited JSON, one
+// transaction per line, in the order of the tokens. At most maxConcurrency fetches are in flight and only those
+// results are held in memory, so memory use does not grow with the number of transactions exported.
+//
+// With a checkpoint file, progress is recorded every checkpointEvery transactions. Running the same export again
+// with the same stream of tokens skips the transactions already written and appends the rest. Gzipped output is
+// written as one gzip member per checkpoint, which gzip readers treat as a single stream.
+//
+// A transaction whose fetch failed counts as processed, so resuming does not fetch it again; an onFailure handler
+// should keep the tokens it is given to export them later. Dates are written as ISO-8601 strings, e.g.
+// "2021-03-04T05:06:07Z", rather than the numeric timestamps of the mapper's defaults.
+public class TransactionExport {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final BerbixApi api;
+    private final ObjectMapper objectMapper;
+    // Records are flushed at checkpoints and at the end, not one by one.
+    private final ObjectWriter writer;
+    private final int maxConcurrency;
+    private final boolean gzip;
+    private final Projection projection;
+    private final Path checkpoint;
+    private final int checkpointEvery;
+    private final CallOptions callOptions;
+    private final FailureHandler failureHandler;
+
+    private TransactionExport(Builder builder) {
+        this.api = builder.api;
+        this.objectMapper = BerbixApi.createObjectMapper().disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        this.writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.maxConcurrency = builder.maxConcurrency;
+        this.gzip = builder.gzip;
+        this.projection = builder.projection;
+        this.checkpoint = builder.checkpoint;
+        this.checkpointEvery = builder.checkpointEvery;
+        this.callOptions = builder.callOptions;
+        this.failureHandler = builder.failureHandler;
+    }
+
+    public interface FailureHandler {
+        // onFailure is called with the position of the tokens in the stream, starting at 0. Without a FailureHandler
+        // the first failed fetch ends the export. Failed tokens are not retried when the export resumes.
+        void onFailure(long index, Tokens tokens, Throwable error);
+    }
+
+    public static class Result {
+        // records is the number of tokens processed, including those skipped when resuming from a checkpoint and
+        // those that failed.
+        public final long records;
+        public final long exported;
+        public final long failed;
+        public final long resumedFrom;
+
+        Result(long records, long exported, long failed, long resumedFrom) {
+            this.records = records;
+            this.exported = exported;
+            this.failed = failed;
+            this.resumedFrom = resumedFrom;
+        }
+    }
+
+    // run exports to a file. With a checkpoint, an interrupted export resumes where its last checkpoint left off.
+    public Result run(Stream<Tokens> tokens, Path output) throws IOException, InterruptedException {
+        Progress progress = checkpoint == null ? new Progress() : Progress.read(checkpoint);
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (channel.size() < progress.bytes) {
+                throw new BerbixException("Export output " + output + " is shorter than its checkpoint");
+            }
+            // Anything past the checkpoint was written after it and will be written again.
+            channel.truncate(progress.bytes);
+            channel.position(progress.bytes);
+
+            return export(tokens, new Output(Channels.newOutputStream(channel), channel), progress);
+        }
+    }
+
+    // run exports to a stream, which is flushed but not closed. Checkpoints need a file and are not supported here.
+    public Result run(Stream<Tokens> tokens, OutputStream output) throws IOException, InterruptedException {
+        if (checkpoint != null) {
+            throw new IllegalStateException("checkpoints require exporting to a Path");
+        }
+        return export(tokens, new Output(output, null), new Progress());
+    }
+
+    private Result export(Stream<Tokens> tokens, Output output, Progress progress) throws IOException, InterruptedException {
+        long resumedFrom = progress.records;
+        Iterator<Tokens> iterator = tokens.skip(resumedFrom).iterator();
+        ArrayDeque<Pending> window = new ArrayDeque<>(maxConcurrency);
+        long next = resumedFrom;
+        long sinceCheckpoint = 0;
+
+        try {
+            while (true) {
+                while (window.size() < maxConcurrency && iterator.hasNext()) {
+                    Tokens nextTokens = iterator.next();
+                    window.add(new Pending(next++, nextTokens, api.fetchTransactionAsync(nextTokens, callOptions)));
+                }
+                Pending pending = window.poll();
+                if (pending == null) {
+                    break;
+                }
+
+                Transaction transaction = await(pending);
+                if (transaction != null) {
+                    write(output.generator(), transaction);
+                    progress.exported++;
+                } else {
+                    progress.failed++;
+                }
+                progress.records = pending.index + 1;
+
+                if (checkpoint != null && ++sinceCheckpoint >= checkpointEvery) {
+                    output.checkpoint(progress, checkpoint);
+                    sinceCheckpoint = 0;
+                }
+            }
+        } finally {
+            for (Pending pending : window) {
+                pending.future.cancel(true);
+            }
+        }
+
+        if (checkpoint != null) {
+            output.checkpoint(progress, checkpoint);
+        } else {
+            output.finish();
+        }
+        return new Result(progress.records, progress.exported, progress.failed, resumedFrom);
+    }
+
+    private Transaction await(Pending pending) throws InterruptedException {
+        try {
+            return pending.future.get();
+        } catch (ExecutionException e) {
+            if (failureHandler == null) {
+                throw BerbixErrors.wrap("Unable to export transaction", e);
+            }
+            failureHandler.onFailure(pending.index, pending.tokens, BerbixErrors.wrap("Unable to fetch transaction", e));
+            return null;
+        }
+    }
+
+    private void write(JsonGenerator generator, Transaction transaction) throws IOException {
+        if (projection == null) {
+            writer.writeValue(generator, transaction);
+        } else {
+            JsonNode tree = objectMapper.valueToTree(transaction);
+            writer.writeValue(generator, projection.apply(tree, objectMapper));
+        }
+        generator.writeRaw('\n');
+    }
+
+    private static class Pending {
+        final long index;
+        final Tokens tokens;
+        final CompletableFuture<Transaction> future;
+
+        Pending(long index, Tokens tokens, CompletableFuture<Transaction> future) {
+            this.index = index;
+            this.tokens = tokens;
+            this.future = future;
+        }
+    }
+
+    private static class Progress {
+        long records;
+        long exported;
+        long failed;
+        long bytes;
+
+        static Progress read(Path path) throws IOException {
+            Progress progress = new Progress();
+            if (!Files.exists(path)) {
+                return progress;
+            }
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(path)) {
+                properties.load(in);
+            }
+            try {
+                progress.records = Long.parseLong(properties.getProperty("records", "0"));
+                progress.exported = Long.parseLong(properties.getProperty("exported", "0"));
+                progress.failed = Long.parseLong(properties.getProperty("failed", "0"));
+                progress.bytes = Long.parseLong(properties.getProperty("bytes", "0"));
+            } catch (NumberFormatException e) {
+                throw new BerbixException("Invalid export checkpoint " + path, e);
+            }
+            return progress;
+        }
+
+        // write replaces the checkpoint atomically, so a crash leaves either the old or the new one.
+        void write(Path path) throws IOException {
+            Properties properties = new Properties();
+            properties.setProperty("records", Long.toString(records));
+            properties.setProperty("exported", Long.toString(exported));
+            properties.setProperty("failed", Long.toString(failed));
+            properties.setProperty("bytes", Long.toString(bytes));
+
+            Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temporary)) {
+                properties.store(out, null);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    // Output writes records through a generator that is replaced at each checkpoint, so that gzip output ends a
+    // member there and the file can be cut back to that point on resume.
+    private class Output {
+        private final OutputStream target;
+        private final FileChannel channel;
+        private JsonGenerator generator;
+
+        Output(OutputStream target, FileChannel channel) {
+            this.target = target;
+            this.channel = channel;
+        }
+
+        JsonGenerator generator() throws IOException {
+            if (generator == null) {
+                OutputStream segment = new FilterOutputStream(target) {
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                    }
+
+                    // Closing a segment must not close the target.
+                    @Override
+                    public void close() throws IOException {
+                        flush();
+                    }
+                };
+                if (gzip) {
+                    segment = new GZIPOutputStream(segment, BUFFER_SIZE);
+                }
+                generator = objectMapper.getFactory().createGenerator(segment);
+                // Lines are separated by the newline written after each record, not by Jackson's default space.
+                generator.setRootValueSeparator(null);
+            }
+            return generator;
+        }
+
+        void finish() throws IOException {
+            if (generator != null) {
+                generator.close();
+                generator = null;
+            }
+            target.flush();
+        }
+
+        void checkpoint(Progress progress, Path path) throws IOException {
+            finish();
+            channel.force(false);
+            progress.bytes = channel.position();
+            progress.write(path);
+        }
+    }
+
+    // Projection keeps only the listed fields of each transaction.
+    private static class Projection {
+        // A node without children keeps the whole value.
+        private final Map<String, Projection> children = new LinkedHashMap<>();
+
+        static Projection of(String... fields) {
+            Projection root = new Projection();
+            for (String field : fields) {
+                if (field == null || field.isEmpty()) {
+                    throw new IllegalArgumentException("fields must not be empty");
+                }
+                Projection node = root;
+                for (String name : field.split("\\.")) {
+                    node = node.children.computeIfAbsent(name, ignored -> new Projection());
+                }
+            }
+            return root;
+        }
+
+        JsonNode apply(JsonNode node, ObjectMapper objectMapper) {
+            if (children.isEmpty() || node == null) {
+                return node;
+            }
+            if (node.isArray()) {
+                ArrayNode projected = objectMapper.createArrayNode();
+                for (JsonNode element : node) {
+                    projected.add(apply(element, objectMapper));
+                }
+                return projected;
+            }
+            if (!node.isObject()) {
+                return node;
+            }
+
+            ObjectNode projected = objectMapper.createObjectNode();
+            for (Map.Entry<String, Projection> child : children.entrySet()) {
+                JsonNode value = node.get(child.getKey());
+                if (value != null) {
+                    projected.set(child.getKey(), child.getValue().apply(value, objectMapper));
+                }
+            }
+            return projected;
+        }
+    }
+
+    public static class Builder {
+        private final BerbixApi api;
+        private int maxConcurrency = 8;
+        private boolean gzip;
+        private Projection projection;
+        private Path checkpoint;
+        private int checkpointEvery = 1000;
+        private CallOptions callOptions = CallOptions.DEFAULT;
+        private FailureHandler failureHandler;
+
+        Builder(BerbixApi api) {
+            this.api = api;
+        }
+
+        public TransactionExport build() {
+            return new TransactionExport(this);
+        }
+
+        public Builder maxConcurrency(int maxConcurrency) {
+            if (maxConcurrency < 1) {
+                throw new IllegalArgumentException("maxConcurrency must be at least 1");
+            }
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        public Builder gzip(boolean gzip) {
+            this.gzip = gzip;
+            return this;
+        }
+
+        // fields limits each line to the given fields, named as in the API's JSON, e.g. "id" or
+        // "fields.given_name.value". A field of an array applies to each of its elements.
+        public Builder fields(String... fields) {
+            this.projection = fields.length == 0 ? null : Projection.of(fields);
+            return this;
+        }
+
+        public Builder checkpoint(Path checkpoint) {
+            this.checkpoint = checkpoint;
+            return this;
+        }
+
+        public Builder checkpointEvery(int records) {
+            if (records < 1) {
+                throw new IllegalArgumentException("records must be at least 1");
+            }
+            this.checkpointEvery = records;
+            return this;
+        }
+
+        public Builder callOptions(CallOptions callOptions) {
+            this.callOptions = callOptions;
+            return this;
+        }
+
+        public Builder onFailure(FailureHandler failureHandler) {
+            this.failureHandler = failureHandler;
+            return this;
+        }
+    }
+}
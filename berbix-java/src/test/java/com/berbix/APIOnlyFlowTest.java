@@ -0,0 +1,175 @@
+package com.berbix;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class APIOnlyFlowTest {
+    private final FakeClient client = new FakeClient();
+    private final APIOnlyFlow flow = new APIOnlyFlow(client, 4, Runnable::run);
+
+    @Test
+    void uploadsEveryRequestedStepAndFetchesTheTransaction() throws Exception {
+        Provider provider = new Provider(false);
+
+        CompletableFuture<APIOnlyFlow.Outcome> outcome = flow.run(new CreateAPIOnlyTransactionRequest(), provider);
+        client.uploads.get(0).complete(response(UploadImagesResponse.NextStepUploadDocumentBack));
+        client.uploads.get(1).complete(response(UploadImagesResponse.NextStepDone));
+        Transaction transaction = new Transaction();
+        client.fetches.get(0).complete(transaction);
+
+        APIOnlyFlow.Outcome result = outcome.get(5, TimeUnit.SECONDS);
+        assertEquals(APIOnlyFlow.Status.COMPLETED, result.status);
+        assertSame(transaction, result.transaction);
+        assertEquals(2, client.uploads.size());
+        assertEquals(2, provider.loaded.size());
+    }
+
+    @Test
+    void doesNotPrefetchLaterStepsUnlessTheProviderOptsIn() {
+        Provider provider = new Provider(false);
+
+        flow.run(new CreateAPIOnlyTransactionRequest(), provider);
+
+        assertEquals(1, client.uploads.size());
+        assertEquals(Collections.singletonList(UploadImagesResponse.NextStepUploadDocumentFront), provider.loaded);
+    }
+
+    @Test
+    void prefetchesTheExpectedStepWhileTheUploadIsInFlight() {
+        Provider provider = new Provider(true);
+
+        flow.run(new CreateAPIOnlyTransactionRequest(), provider);
+        assertEquals(1, client.uploads.size());
+        assertEquals(2, provider.loaded.size());
+        assertEquals(UploadImagesResponse.NextStepUploadDocumentBack, provider.loaded.get(1));
+
+        client.uploads.get(0).complete(response(UploadImagesResponse.NextStepUploadDocumentBack));
+
+        // The back was already loaded; the selfie is loaded while it is uploaded.
+        assertEquals(2, client.uploads.size());
+        assertEquals(3, provider.loaded.size());
+        assertEquals(UploadImagesResponse.NextStepUploadSelfieBasic, provider.loaded.get(2));
+    }
+
+    @Test
+    void unexpectedStepLoadsItsOwnImages() throws Exception {
+        Provider provider = new Provider(true);
+
+        CompletableFuture<APIOnlyFlow.Outcome> outcome = flow.run(new CreateAPIOnlyTransactionRequest(), provider);
+        client.uploads.get(0).complete(response(UploadImagesResponse.NextStepUploadSelfieLiveness));
+
+        assertEquals(UploadImagesResponse.NextStepUploadSelfieLiveness, provider.loaded.get(2));
+        client.uploads.get(1).complete(response(UploadImagesResponse.NextStepDone));
+        client.fetches.get(0).complete(new Transaction());
+        assertEquals(APIOnlyFlow.Status.COMPLETED, outcome.get(5, TimeUnit.SECONDS).status);
+    }
+
+    @Test
+    void cancellingTheOutcomeCancelsTheInFlightUpload() {
+        Provider provider = new Provider(false);
+
+        CompletableFuture<APIOnlyFlow.Outcome> outcome = flow.run(new CreateAPIOnlyTransactionRequest(), provider);
+        outcome.cancel(true);
+
+        assertTrue(client.uploads.get(0).isCancelled());
+    }
+
+    @Test
+    void cancellingTheOutcomeCancelsTheImageLoads() {
+        CompletableFuture<Runnable> queued = new CompletableFuture<>();
+        APIOnlyFlow queuedFlow = new APIOnlyFlow(client, 4, queued::complete);
+        Provider provider = new Provider(false);
+
+        CompletableFuture<APIOnlyFlow.Outcome> outcome = queuedFlow.run(new CreateAPIOnlyTransactionRequest(), provider);
+        outcome.cancel(true);
+        queued.join().run();
+
+        assertTrue(provider.loaded.isEmpty());
+        assertTrue(client.uploads.isEmpty());
+    }
+
+    @Test
+    void missingImagesStopTheFlow() throws Exception {
+        Provider provider = new Provider(false);
+        provider.missing = UploadImagesResponse.NextStepUploadDocumentBack;
+
+        CompletableFuture<APIOnlyFlow.Outcome> outcome = flow.run(new CreateAPIOnlyTransactionRequest(), provider);
+        client.uploads.get(0).complete(response(UploadImagesResponse.NextStepUploadDocumentBack));
+
+        APIOnlyFlow.Outcome result = outcome.get(5, TimeUnit.SECONDS);
+        assertEquals(APIOnlyFlow.Status.MISSING_IMAGES, result.status);
+        assertEquals(UploadImagesResponse.NextStepUploadDocumentBack, result.nextStep);
+        assertTrue(client.fetches.isEmpty());
+    }
+
+    private static UploadImagesResponse response(String nextStep) {
+        UploadImagesResponse response = new UploadImagesResponse();
+        response.nextStep = nextStep;
+        return response;
+    }
+
+    private static class Provider implements APIOnlyFlow.ImageProvider {
+        private final boolean prefetch;
+        final List<String> loaded = new CopyOnWriteArrayList<>();
+        String missing;
+
+        Provider(boolean prefetch) {
+            this.prefetch = prefetch;
+        }
+
+        @Override
+        public List<UploadImagesRequest.ImageData> images(String nextStep) {
+            loaded.add(nextStep);
+            if (nextStep.equals(missing)) {
+                return Collections.emptyList();
+            }
+            return Collections.singletonList(APIOnlyFlow.imageData("document_front", "image/jpeg", new byte[]{1}));
+        }
+
+        @Override
+        public boolean prefetchNextStep() {
+            return prefetch;
+        }
+    }
+
+    private static class FakeClient extends BerbixClient {
+        final List<CompletableFuture<UploadImagesResponse>> uploads = new CopyOnWriteArrayList<>();
+        final List<CompletableFuture<Transaction>> fetches = new CopyOnWriteArrayList<>();
+
+        FakeClient() {
+            super(new BerbixApi(new Berbix.BerbixOptions("secret", "https://api.berbix.com")));
+        }
+
+        @Override
+        public CompletableFuture<CreateAPIOnlyTransactionResponse> createAPIOnlyTransactionAsync(CreateAPIOnlyTransactionRequest request) {
+            CreateAPIOnlyTransactionResponse response = new CreateAPIOnlyTransactionResponse();
+            response.tokens = new Tokens();
+            response.tokens.clientToken = "client";
+            response.tokens.transactionId = 1L;
+            return CompletableFuture.completedFuture(response);
+        }
+
+        @Override
+        public CompletableFuture<UploadImagesResponse> uploadImagesAsync(String clientToken, UploadImagesRequest request) {
+            CompletableFuture<UploadImagesResponse> upload = new CompletableFuture<>();
+            uploads.add(upload);
+            return upload;
+        }
+
+        @Override
+        public CompletableFuture<Transaction> fetchTransactionAsync(Tokens tokens) {
+            CompletableFuture<Transaction> fetch = new CompletableFuture<>();
+            fetches.add(fetch);
+            return fetch;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.berbix;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsyncLimiterTest {
+
+    @Test
+    void queuesTasksAboveTheLimit() {
+        AsyncLimiter limiter = new AsyncLimiter(2);
+        List<CompletableFuture<String>> tasks = new ArrayList<>();
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            CompletableFuture<String> task = new CompletableFuture<>();
+            tasks.add(task);
+            results.add(limiter.submit(() -> task));
+        }
+
+        assertEquals(2, limiter.running());
+        assertEquals(1, limiter.queued());
+    }
+
+    @Test
+    void startsQueuedTasksInOrderAsRunningOnesComplete() {
+        AsyncLimiter limiter = new AsyncLimiter(1);
+        List<Integer> started = new ArrayList<>();
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+
+        CompletableFuture<String> firstResult = limiter.submit(() -> {
+            started.add(1);
+            return first;
+        });
+        CompletableFuture<String> secondResult = limiter.submit(() -> {
+            started.add(2);
+            return second;
+        });
+        assertEquals(1, started.size());
+
+        first.complete("a");
+        assertEquals("a", firstResult.join());
+        assertEquals(2, started.size());
+        assertFalse(secondResult.isDone());
+
+        second.complete("b");
+        assertEquals("b", secondResult.join());
+        assertEquals(0, limiter.running());
+    }
+
+    @Test
+    void failedTaskReleasesItsPermit() {
+        AsyncLimiter limiter = new AsyncLimiter(1);
+        CompletableFuture<String> failing = new CompletableFuture<>();
+        CompletableFuture<String> failed = limiter.submit(() -> failing);
+        CompletableFuture<String> next = limiter.submit(() -> CompletableFuture.completedFuture("next"));
+
+        failing.completeExceptionally(new IllegalStateException("failed"));
+
+        assertTrue(failed.isCompletedExceptionally());
+        assertEquals("next", next.join());
+        assertEquals(0, limiter.running());
+    }
+
+    @Test
+    void taskThatThrowsReleasesItsPermit() {
+        AsyncLimiter limiter = new AsyncLimiter(1);
+
+        CompletableFuture<String> thrown = limiter.submit(() -> {
+            throw new IllegalStateException("failed");
+        });
+
+        assertTrue(thrown.isCompletedExceptionally());
+        assertEquals(0, limiter.running());
+        assertEquals("next", limiter.submit(() -> CompletableFuture.completedFuture("next")).join());
+    }
+
+    @Test
+    void cancellingAQueuedResultDoesNotLeakItsPermit() {
+        AsyncLimiter limiter = new AsyncLimiter(1);
+        CompletableFuture<String> running = new CompletableFuture<>();
+        limiter.submit(() -> running);
+        CompletableFuture<String> cancelled = limiter.submit(() -> CompletableFuture.completedFuture("cancelled"));
+        CompletableFuture<String> waiting = limiter.submit(() -> CompletableFuture.completedFuture("waiting"));
+
+        cancelled.cancel(true);
+        assertEquals(1, limiter.queued());
+        running.complete("done");
+
+        assertEquals("waiting", waiting.join());
+        assertEquals(0, limiter.running());
+    }
+
+    @Test
+    void cancelledQueuedTaskIsNeverStarted() {
+        AsyncLimiter limiter = new AsyncLimiter(1);
+        CompletableFuture<String> running = new CompletableFuture<>();
+        limiter.submit(() -> running);
+        List<String> started = new ArrayList<>();
+        CompletableFuture<String> cancelled = limiter.submit(() -> {
+            started.add("cancelled");
+            return new CompletableFuture<>();
+        });
+
+        cancelled.cancel(true);
+        running.complete("done");
+
+        assertTrue(started.isEmpty());
+        assertEquals(0, limiter.running());
+        assertEquals(0, limiter.queued());
+    }
+
+    @Test
+    void rejectsLimitBelowOne() {
+        assertThrows(IllegalArgumentException.class, () -> new AsyncLimiter(0));
+    }
+}
@@ -0,0 +1,103 @@
+package com.berbix;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BerbixClientRegistryTest {
+    private final BerbixClientRegistry registry = new BerbixClientRegistry.Builder()
+            .apiSecretProvider(tenantId -> "secret-" + tenantId)
+            .build();
+
+    @AfterEach
+    void closeRegistry() {
+        registry.close(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void returnsTheSameClientForATenant() {
+        BerbixClient client = registry.client("a");
+
+        assertSame(client, registry.client("a"));
+        assertNotSame(client, registry.client("b"));
+        assertEquals(2, registry.tenantCount());
+    }
+
+    @Test
+    void closingATenantClientEvictsItWithoutShuttingItDown() {
+        BerbixClient client = registry.client("a");
+
+        client.close();
+
+        assertEquals(0, registry.tenantCount());
+        assertFalse(client.isClosed());
+        BerbixClient replacement = registry.client("a");
+        assertNotSame(client, replacement);
+        assertFalse(replacement.isClosed());
+    }
+
+    @Test
+    void closingTheRegistryShutsDownEveryTenant() {
+        BerbixClient a = registry.client("a");
+        BerbixClient b = registry.client("b");
+
+        long start = System.nanoTime();
+        registry.close(1, TimeUnit.SECONDS);
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertTrue(a.isClosed());
+        assertTrue(b.isClosed());
+        assertEquals(0, registry.tenantCount());
+        assertThrows(BerbixException.class, () -> registry.client("a"));
+    }
+
+    @Test
+    void quotaOutlivesARecreatedClient() throws Exception {
+        BerbixClientRegistry limited = new BerbixClientRegistry.Builder()
+                .options(new Berbix.BerbixOptions.Builder().apiHost("http://localhost:1").build())
+                .apiSecretProvider(tenantId -> "secret-" + tenantId)
+                .maxRequestsPerSecondPerTenant(0.001)
+                .build();
+        try {
+            BerbixClient first = limited.client("a");
+            awaitFailure(first.createTransactionAsync(new CreateTransactionRequest()));
+            first.close();
+
+            Throwable rejected = awaitFailure(limited.client("a").createTransactionAsync(new CreateTransactionRequest()));
+
+            assertTrue(rejected instanceof BerbixRateLimitedException);
+            // Other tenants have their own quota.
+            assertFalse(awaitFailure(limited.client("b").createTransactionAsync(new CreateTransactionRequest())) instanceof BerbixRateLimitedException);
+        } finally {
+            limited.close(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void rejectsTenantsWithoutASecret() {
+        BerbixClientRegistry withoutSecrets = new BerbixClientRegistry.Builder()
+                .apiSecretProvider(tenantId -> null)
+                .build();
+        try {
+            assertThrows(BerbixException.class, () -> withoutSecrets.client("a"));
+            assertEquals(0, withoutSecrets.tenantCount());
+        } finally {
+            withoutSecrets.close();
+        }
+    }
+
+    private static Throwable awaitFailure(CompletableFuture<?> future) throws Exception {
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        return e.getCause();
+    }
+}
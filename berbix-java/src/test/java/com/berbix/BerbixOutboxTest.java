@@ -0,0 +1,115 @@
+package com.berbix;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BerbixOutboxTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void successfulWriteIsMarkedDone() throws Exception {
+        FakeClient client = new FakeClient();
+        try (BerbixOutbox outbox = BerbixOutbox.open(client, directory)) {
+            CompletableFuture<CreateTransactionResponse> response = outbox.createTransactionAsync(request("a"));
+            client.awaitCalls(1).complete(new CreateTransactionResponse());
+
+            assertNotNull(response.get(5, TimeUnit.SECONDS));
+            assertEquals(0, outbox.pendingCount());
+        }
+    }
+
+    @Test
+    void retryableFailureIsMarkedDoneBeforeTheCallerSeesIt() throws Exception {
+        FakeClient client = new FakeClient();
+        try (BerbixOutbox outbox = BerbixOutbox.open(client, directory)) {
+            CompletableFuture<CreateTransactionResponse> response = outbox.createTransactionAsync(request("a"));
+            client.awaitCalls(1).completeExceptionally(new IOException("Connection reset"));
+
+            ExecutionException e = assertThrows(ExecutionException.class, () -> response.get(5, TimeUnit.SECONDS));
+            assertTrue(BerbixErrors.isRetryable(e.getCause()));
+            assertEquals(0, outbox.pendingCount());
+        }
+
+        // Nothing is left for a later process to send again.
+        try (BerbixOutbox reopened = BerbixOutbox.open(new FakeClient(), directory)) {
+            assertEquals(0, reopened.pendingCount());
+        }
+    }
+
+    @Test
+    void replaySendsUnfinishedWritesOnceWithTheirKey() throws Exception {
+        FakeClient first = new FakeClient();
+        String key;
+        try (BerbixOutbox outbox = BerbixOutbox.open(first, directory)) {
+            outbox.createTransactionAsync(request("a"));
+            first.awaitCalls(1);
+            key = first.keys.get(0);
+            // The process stops before the call completes.
+        }
+
+        FakeClient second = new FakeClient();
+        try (BerbixOutbox outbox = BerbixOutbox.open(second, directory)) {
+            assertEquals(1, outbox.pendingCount());
+            List<Throwable> errors = new CopyOnWriteArrayList<>();
+            CompletableFuture<Void> replay = outbox.replay((entry, result, error) -> errors.add(error));
+            second.awaitCalls(1).completeExceptionally(new IOException("Connection reset"));
+            replay.get(5, TimeUnit.SECONDS);
+
+            assertSame(replay, outbox.replay((entry, result, error) -> errors.add(error)));
+            assertEquals(1, second.calls.size());
+            assertEquals(key, second.keys.get(0));
+            assertEquals("a", second.requests.get(0).customerUid);
+            assertEquals(1, errors.size());
+            assertEquals(0, outbox.pendingCount());
+        }
+    }
+
+    private static CreateTransactionRequest request(String customerUid) {
+        CreateTransactionRequest request = new CreateTransactionRequest();
+        request.customerUid = customerUid;
+        return request;
+    }
+
+    private static class FakeClient extends BerbixClient {
+        final List<CompletableFuture<CreateTransactionResponse>> calls = new CopyOnWriteArrayList<>();
+        final List<String> keys = new CopyOnWriteArrayList<>();
+        final List<CreateTransactionRequest> requests = new CopyOnWriteArrayList<>();
+
+        FakeClient() {
+            super(new BerbixApi(new Berbix.BerbixOptions("secret", "https://api.berbix.com")));
+        }
+
+        @Override
+        public CompletableFuture<CreateTransactionResponse> createTransactionAsync(CreateTransactionRequest request, CallOptions callOptions) {
+            CompletableFuture<CreateTransactionResponse> call = new CompletableFuture<>();
+            requests.add(request);
+            keys.add(callOptions.idempotencyKey);
+            calls.add(call);
+            return call;
+        }
+
+        CompletableFuture<CreateTransactionResponse> awaitCalls(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (calls.size() < count && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(count, calls.size());
+            return calls.get(count - 1);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.berbix;
+
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BerbixProcessorTest {
+    private final Map<String, CompletableFuture<String>> calls = new HashMap<>();
+    private final BerbixProcessor<String, String> processor = new BerbixProcessor<>(this::call, 2);
+    private final Upstream upstream = new Upstream();
+    private final Downstream downstream = new Downstream();
+
+    @Test
+    void requestsMaxInFlightOnceBothSidesAreSubscribed() {
+        processor.onSubscribe(upstream);
+        assertEquals(0, upstream.requested);
+
+        processor.subscribe(downstream);
+
+        assertEquals(2, upstream.requested);
+    }
+
+    @Test
+    void holdsResultsUntilDownstreamAsksForThem() {
+        subscribe();
+        processor.onNext("a");
+        processor.onNext("b");
+        calls.get("a").complete("A");
+        calls.get("b").complete("B");
+
+        assertTrue(downstream.results.isEmpty());
+        // Nothing more is taken from upstream while results are waiting.
+        assertEquals(2, upstream.requested);
+
+        downstream.subscription.request(1);
+
+        assertEquals(1, downstream.results.size());
+        assertEquals("A", downstream.results.get(0).value);
+        assertEquals(3, upstream.requested);
+    }
+
+    @Test
+    void emitsResultsInCompletionOrder() {
+        subscribe();
+        downstream.subscription.request(2);
+        processor.onNext("a");
+        processor.onNext("b");
+
+        calls.get("b").complete("B");
+        calls.get("a").complete("A");
+
+        assertEquals("b", downstream.results.get(0).input);
+        assertEquals("a", downstream.results.get(1).input);
+        assertEquals(0, processor.inFlight());
+    }
+
+    @Test
+    void failedCallIsEmittedAsAResult() {
+        subscribe();
+        downstream.subscription.request(1);
+        processor.onNext("a");
+        IllegalStateException failure = new IllegalStateException("failed");
+
+        calls.get("a").completeExceptionally(failure);
+
+        BerbixProcessor.Result<String, String> result = downstream.results.get(0);
+        assertFalse(result.isSuccess());
+        assertSame(failure, result.error);
+        assertNull(result.value);
+        assertFalse(downstream.completed);
+    }
+
+    @Test
+    void callThatThrowsIsEmittedAsAResult() {
+        BerbixProcessor<String, String> throwing = new BerbixProcessor<>(item -> {
+            throw new IllegalStateException("failed");
+        }, 1);
+        throwing.onSubscribe(upstream);
+        throwing.subscribe(downstream);
+        downstream.subscription.request(1);
+
+        throwing.onNext("a");
+
+        assertEquals("failed", downstream.results.get(0).error.getMessage());
+    }
+
+    @Test
+    void completesOnceInFlightCallsAreDelivered() {
+        subscribe();
+        downstream.subscription.request(1);
+        processor.onNext("a");
+        processor.onComplete();
+
+        assertFalse(downstream.completed);
+
+        calls.get("a").complete("A");
+
+        assertEquals(1, downstream.results.size());
+        assertTrue(downstream.completed);
+    }
+
+    @Test
+    void completionWaitsForDemandForQueuedResults() {
+        subscribe();
+        processor.onNext("a");
+        calls.get("a").complete("A");
+        processor.onComplete();
+
+        assertFalse(downstream.completed);
+
+        downstream.subscription.request(1);
+
+        assertEquals(1, downstream.results.size());
+        assertTrue(downstream.completed);
+    }
+
+    @Test
+    void upstreamErrorIsDeliveredAfterTheResults() {
+        subscribe();
+        downstream.subscription.request(1);
+        processor.onNext("a");
+        IllegalStateException failure = new IllegalStateException("upstream failed");
+        processor.onError(failure);
+
+        assertNull(downstream.error);
+
+        calls.get("a").complete("A");
+
+        assertEquals(1, downstream.results.size());
+        assertSame(failure, downstream.error);
+    }
+
+    @Test
+    void cancelStopsDeliveryAndCancelsUpstream() {
+        subscribe();
+        downstream.subscription.request(1);
+        processor.onNext("a");
+
+        downstream.subscription.cancel();
+        calls.get("a").complete("A");
+
+        assertTrue(upstream.cancelled);
+        assertTrue(downstream.results.isEmpty());
+        assertFalse(downstream.completed);
+    }
+
+    @Test
+    void nonPositiveRequestFailsTheStream() {
+        subscribe();
+
+        downstream.subscription.request(0);
+
+        assertTrue(downstream.error instanceof IllegalArgumentException);
+        assertTrue(upstream.cancelled);
+    }
+
+    @Test
+    void rejectsASecondSubscriber() {
+        subscribe();
+        Downstream second = new Downstream();
+
+        processor.subscribe(second);
+
+        assertTrue(second.error instanceof IllegalStateException);
+    }
+
+    @Test
+    void rejectsASecondUpstream() {
+        subscribe();
+        Upstream second = new Upstream();
+
+        processor.onSubscribe(second);
+
+        assertTrue(second.cancelled);
+    }
+
+    @Test
+    void rejectsNulls() {
+        subscribe();
+
+        assertThrows(NullPointerException.class, () -> processor.onNext(null));
+        assertThrows(NullPointerException.class, () -> processor.onError(null));
+    }
+
+    @Test
+    void rejectsMaxInFlightBelowOne() {
+        assertThrows(IllegalArgumentException.class, () -> new BerbixProcessor<String, String>(this::call, 0));
+    }
+
+    private void subscribe() {
+        processor.onSubscribe(upstream);
+        processor.subscribe(downstream);
+    }
+
+    private CompletableFuture<String> call(String item) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        calls.put(item, future);
+        return future;
+    }
+
+    private static class Upstream implements Subscription {
+        long requested;
+        boolean cancelled;
+
+        @Override
+        public void request(long n) {
+            requested += n;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private static class Downstream implements Subscriber<BerbixProcessor.Result<String, String>> {
+        final List<BerbixProcessor.Result<String, String>> results = new ArrayList<>();
+        Subscription subscription;
+        Throwable error;
+        boolean completed;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(BerbixProcessor.Result<String, String> result) {
+            results.add(result);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}
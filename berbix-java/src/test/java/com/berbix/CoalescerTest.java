@@ -0,0 +1,138 @@
+package com.berbix;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CoalescerTest {
+    private final AtomicInteger copies = new AtomicInteger();
+    private final Coalescer<String, List<String>> coalescer = new Coalescer<>(value -> {
+        copies.incrementAndGet();
+        return new ArrayList<>(value);
+    });
+
+    @Test
+    void sharesOneCallBetweenConcurrentCallers() throws Exception {
+        CompletableFuture<List<String>> call = new CompletableFuture<>();
+        AtomicInteger calls = new AtomicInteger();
+
+        CompletableFuture<List<String>> first = coalescer.submit("a", () -> {
+            calls.incrementAndGet();
+            return call;
+        });
+        CompletableFuture<List<String>> second = coalescer.submit("a", () -> {
+            calls.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        List<String> value = new ArrayList<>();
+        value.add("x");
+        call.complete(value);
+
+        assertEquals(1, calls.get());
+        assertEquals(value, first.get());
+        assertEquals(value, second.get());
+        assertNotSame(first.get(), second.get());
+        assertTrue(first.get() == value || second.get() == value);
+        assertEquals(1, copies.get());
+        assertEquals(0, coalescer.inFlightCount());
+    }
+
+    @Test
+    void doesNotCopyForASingleCaller() throws Exception {
+        List<String> value = new ArrayList<>();
+
+        CompletableFuture<List<String>> only = coalescer.submit("a", () -> CompletableFuture.completedFuture(value));
+
+        assertSame(value, only.get());
+        assertEquals(0, copies.get());
+    }
+
+    @Test
+    void callersAfterCompletionStartANewCall() throws Exception {
+        CompletableFuture<List<String>> call = new CompletableFuture<>();
+        coalescer.submit("a", () -> call);
+        call.complete(new ArrayList<>());
+
+        CompletableFuture<List<String>> next = new CompletableFuture<>();
+        CompletableFuture<List<String>> later = coalescer.submit("a", () -> next);
+
+        assertFalse(later.isDone());
+        assertEquals(1, coalescer.inFlightCount());
+    }
+
+    @Test
+    void differentKeysDoNotShare() {
+        CompletableFuture<List<String>> a = new CompletableFuture<>();
+        CompletableFuture<List<String>> b = new CompletableFuture<>();
+
+        coalescer.submit("a", () -> a);
+        coalescer.submit("b", () -> b);
+
+        assertEquals(2, coalescer.inFlightCount());
+    }
+
+    @Test
+    void failuresReachEveryCaller() {
+        CompletableFuture<List<String>> call = new CompletableFuture<>();
+        CompletableFuture<List<String>> first = coalescer.submit("a", () -> call);
+        CompletableFuture<List<String>> second = coalescer.submit("a", () -> call);
+        IllegalStateException failure = new IllegalStateException("failed");
+
+        call.completeExceptionally(failure);
+
+        assertSame(failure, assertThrows(ExecutionException.class, first::get).getCause());
+        assertSame(failure, assertThrows(ExecutionException.class, second::get).getCause());
+        assertEquals(0, coalescer.inFlightCount());
+    }
+
+    @Test
+    void supplierThatThrowsFailsTheCaller() {
+        CompletableFuture<List<String>> failed = coalescer.submit("a", () -> {
+            throw new IllegalStateException("failed");
+        });
+
+        assertTrue(failed.isCompletedExceptionally());
+        assertEquals(0, coalescer.inFlightCount());
+    }
+
+    @Test
+    void cancellingOneCallerLeavesTheCallRunning() throws Exception {
+        CompletableFuture<List<String>> call = new CompletableFuture<>();
+        CompletableFuture<List<String>> first = coalescer.submit("a", () -> call);
+        CompletableFuture<List<String>> second = coalescer.submit("a", () -> call);
+
+        first.cancel(true);
+        call.complete(new ArrayList<>());
+
+        assertFalse(call.isCancelled());
+        assertEquals(new ArrayList<>(), second.get());
+        // The cancelled caller is skipped, so the remaining one gets the original.
+        assertEquals(0, copies.get());
+    }
+
+    @Test
+    void cancellingEveryCallerCancelsTheCall() {
+        CompletableFuture<List<String>> call = new CompletableFuture<>();
+        CompletableFuture<List<String>> first = coalescer.submit("a", () -> call);
+        CompletableFuture<List<String>> second = coalescer.submit("a", () -> call);
+
+        first.cancel(true);
+        second.cancel(true);
+
+        assertTrue(call.isCancelled());
+        assertEquals(0, coalescer.inFlightCount());
+        assertThrows(CancellationException.class, first::join);
+    }
+}
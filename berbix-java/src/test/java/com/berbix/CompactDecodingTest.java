@@ -0,0 +1,82 @@
+package com.berbix;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class CompactDecodingTest {
+    private static final String TRANSACTION = "{"
+            + "\"id\": 1,"
+            + "\"action\": \"accept\","
+            + "\"entity\": \"entity\","
+            + "\"flags\": [\"id_under_18\", \"id_expired\", null],"
+            + "\"created_at\": \"2021-03-04T05:06:07-08:00\","
+            + "\"fields\": {"
+            + "  \"given_name\": {\"value\": \"Jane\", \"confidence\": \"high\","
+            + "    \"sources\": [{\"value\": \"Jane\", \"confidence\": \"high\", \"type\": \"document_ocr\"}]},"
+            + "  \"family_name\": {\"value\": \"Doe\", \"confidence\": \"medium\","
+            + "    \"sources\": [{\"value\": \"Doe\", \"confidence\": \"medium\", \"type\": \"document_ocr\"}]}"
+            + "}}";
+
+    private final ObjectMapper plain = BerbixApi.createObjectMapper(false);
+    private final ObjectMapper compact = BerbixApi.createObjectMapper(true);
+
+    @Test
+    void repeatedValuesAreTheSameInstance() throws Exception {
+        Transaction first = compact.readValue(TRANSACTION, Transaction.class);
+        Transaction second = compact.readValue(TRANSACTION, Transaction.class);
+
+        assertSame(first.action, second.action);
+        assertSame(first.entity, second.entity);
+        assertSame(first.flags.get(0), second.flags.get(0));
+        assertSame(first.flags.get(1), second.flags.get(1));
+        assertSame(first.fields.givenName.confidence, second.fields.givenName.confidence);
+        assertSame(first.fields.givenName.confidence, first.fields.givenName.sources.get(0).confidence);
+        assertSame(first.fields.givenName.sources.get(0).type, second.fields.familyName.sources.get(0).type);
+    }
+
+    @Test
+    void plainDecodingDoesNotShareValues() throws Exception {
+        Transaction first = plain.readValue(TRANSACTION, Transaction.class);
+        Transaction second = plain.readValue(TRANSACTION, Transaction.class);
+
+        assertNotSame(first.action, second.action);
+    }
+
+    @Test
+    void decodesTheSameAsPlainDecoding() throws Exception {
+        Transaction compacted = compact.readValue(TRANSACTION, Transaction.class);
+        Transaction decoded = plain.readValue(TRANSACTION, Transaction.class);
+
+        assertEquals(plain.valueToTree(decoded), plain.valueToTree(compacted));
+        assertNull(compacted.flags.get(2));
+    }
+
+    @Test
+    void datesAreAdjustedToUtc() throws Exception {
+        Transaction transaction = compact.readValue(TRANSACTION, Transaction.class);
+
+        // UTC is a single shared ZoneOffset, which is why dates need no interning.
+        assertSame(ZoneOffset.UTC, transaction.createdAt.getZone());
+        assertEquals(13, transaction.createdAt.getHour());
+    }
+
+    @Test
+    void valuesBeyondTheCapacityAreNotShared() {
+        // The three confidences are known ahead of time and already fill most of the table.
+        CompactDecoding decoding = new CompactDecoding(4);
+        String first = new String("first");
+        String second = new String("second");
+
+        assertSame(first, decoding.intern(first));
+        assertSame(first, decoding.intern(new String("first")));
+        assertSame(second, decoding.intern(second));
+        assertNotSame(second, decoding.intern(new String("second")));
+    }
+}
@@ -0,0 +1,74 @@
+package com.berbix;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EndpointTimeoutsTest {
+    private final List<TimeoutEvent> events = new ArrayList<>();
+    private final EndpointTimeouts timeouts = new EndpointTimeouts(Collections.emptyMap(), events::add);
+
+    @Test
+    void reportsTimeoutOfTheEndpoint() {
+        CompletableFuture<String> completion = observe(true);
+
+        completion.completeExceptionally(new InterruptedIOException("timeout"));
+
+        assertEquals(1, events.size());
+        assertEquals(BerbixEndpoint.FETCH_TRANSACTION, events.get(0).endpoint);
+        assertEquals(BerbixApi.REQUEST_TIMEOUT_MILLIS, events.get(0).timeoutMillis);
+    }
+
+    @Test
+    void reportsTimeoutWhileReadingTheBody() {
+        CompletableFuture<String> completion = observe(true);
+
+        completion.completeExceptionally(BerbixErrors.wrap("Unable to read response", new InterruptedIOException("timeout")));
+
+        assertEquals(1, events.size());
+    }
+
+    @Test
+    void ignoresTimeoutOfTheCallersDeadline() {
+        CompletableFuture<String> completion = observe(false);
+
+        completion.completeExceptionally(new InterruptedIOException("timeout"));
+
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    void ignoresOtherFailures() {
+        CompletableFuture<String> completion = observe(true);
+
+        completion.completeExceptionally(new IOException("Connection reset"));
+
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    void endpointTimeoutAppliesWhenShorterThanTheDeadline() {
+        long endpointTimeout = TimeUnit.SECONDS.toNanos(1);
+
+        assertTrue(new CallContext(0, null).limitedByTimeout(endpointTimeout));
+        assertTrue(new CallContext(60_000, null).limitedByTimeout(endpointTimeout));
+        assertFalse(new CallContext(100, null).limitedByTimeout(endpointTimeout));
+        assertFalse(new CallContext(0, null).limitedByTimeout(0));
+    }
+
+    private CompletableFuture<String> observe(boolean limitedByTimeout) {
+        BerbixEndpoint endpoint = BerbixEndpoint.FETCH_TRANSACTION;
+        return timeouts.observe(endpoint, timeouts.timeoutNanos(endpoint, -1), limitedByTimeout, -1, System.nanoTime(),
+                new CompletableFuture<>());
+    }
+}
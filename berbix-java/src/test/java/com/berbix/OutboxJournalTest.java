@@ -0,0 +1,202 @@
+package com.berbix;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboxJournalTest {
+    private static final int SEGMENT_SIZE = 4096;
+    private static final int RECORD_OVERHEAD = 4 + 1 + 8 + 4;
+
+    @TempDir
+    Path directory;
+
+    private final List<OutboxJournal> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeJournals() throws IOException {
+        for (OutboxJournal journal : opened) {
+            journal.close();
+        }
+    }
+
+    @Test
+    void appendCompletesWithIncreasingSequences() throws Exception {
+        OutboxJournal journal = open(2);
+
+        long first = journal.append(bytes("a")).get();
+        long second = journal.append(bytes("b")).get();
+
+        assertEquals(0, first);
+        assertEquals(1, second);
+        assertEquals(2, journal.pendingCount());
+    }
+
+    @Test
+    void markDoneRemovesPendingEntry() throws Exception {
+        OutboxJournal journal = open(2);
+        long sequence = journal.append(bytes("a")).get();
+
+        journal.markDone(sequence);
+        journal.markDone(sequence);
+
+        assertEquals(0, journal.pendingCount());
+    }
+
+    @Test
+    void recoversEntriesThatWereNotDone() throws Exception {
+        OutboxJournal journal = open(2);
+        long done = journal.append(bytes("done")).get();
+        long pending = journal.append(bytes("pending")).get();
+        journal.markDone(done);
+        journal.close();
+
+        OutboxJournal reopened = open(2);
+        Map<Long, byte[]> recovered = reopened.takeRecovered();
+
+        assertEquals(1, recovered.size());
+        assertArrayEquals(bytes("pending"), recovered.get(pending));
+        assertTrue(reopened.takeRecovered().isEmpty());
+        assertEquals(1, reopened.pendingCount());
+        assertEquals(pending + 1, (long) reopened.append(bytes("next")).get());
+    }
+
+    @Test
+    void recoveryStopsAtTornRecord() throws Exception {
+        OutboxJournal journal = open(2);
+        long intact = journal.append(bytes("intact")).get();
+        journal.append(bytes("torn")).get();
+        journal.close();
+
+        // Flip a payload byte of the second record so that its checksum no longer matches.
+        int offset = RECORD_OVERHEAD + bytes("intact").length + RECORD_OVERHEAD - 4;
+        try (FileChannel channel = FileChannel.open(onlySegment(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'X'}), offset);
+        }
+
+        OutboxJournal reopened = open(2);
+
+        Map<Long, byte[]> recovered = reopened.takeRecovered();
+        assertEquals(1, recovered.size());
+        assertArrayEquals(bytes("intact"), recovered.get(intact));
+        // The torn record is overwritten by the next append.
+        long next = reopened.append(bytes("next")).get();
+        reopened.close();
+        assertEquals(2, open(2).takeRecovered().size());
+        assertTrue(next > intact);
+    }
+
+    @Test
+    void compactionCopiesFewPendingEntriesForward() throws Exception {
+        OutboxJournal journal = open(2);
+        long kept = journal.append(bytes("kept")).get();
+
+        // Enough finished entries to fill many segments; with only two allowed, the segment holding the pending
+        // entry has to be compacted away for appends to keep succeeding.
+        byte[] filler = new byte[500];
+        for (int i = 0; i < 50; i++) {
+            journal.markDone(journal.append(filler).get());
+        }
+        journal.close();
+
+        assertTrue(segmentCount() <= 2);
+        OutboxJournal reopened = open(2);
+        Map<Long, byte[]> recovered = reopened.takeRecovered();
+        assertEquals(1, recovered.size());
+        assertArrayEquals(bytes("kept"), recovered.get(kept));
+    }
+
+    @Test
+    void largestEntryFitsAfterCompaction() throws Exception {
+        OutboxJournal journal = open(2);
+        byte[] compacted = new byte[900];
+        byte[] largest = new byte[SEGMENT_SIZE - SEGMENT_SIZE / 4 - RECORD_OVERHEAD];
+        Arrays.fill(largest, (byte) 7);
+
+        long first = journal.append(compacted).get();
+        journal.markDone(journal.append(new byte[2500]).get());
+        // This append rolls the segment, and compaction copies the first entry into the new one before it is written.
+        long second = journal.append(largest).get();
+        journal.close();
+
+        OutboxJournal reopened = open(2);
+        Map<Long, byte[]> recovered = reopened.takeRecovered();
+        assertEquals(2, recovered.size());
+        assertArrayEquals(compacted, recovered.get(first));
+        assertArrayEquals(largest, recovered.get(second));
+    }
+
+    @Test
+    void rejectsEntryTooLargeForSegment() throws Exception {
+        OutboxJournal journal = open(2);
+
+        assertThrows(BerbixException.class, () -> journal.append(new byte[SEGMENT_SIZE - SEGMENT_SIZE / 4]));
+        assertEquals(0, journal.pendingCount());
+    }
+
+    @Test
+    void rejectsAppendsOnceFull() throws Exception {
+        OutboxJournal journal = open(2);
+
+        // Four pending entries fill a segment and are too large together to be compacted.
+        byte[] payload = new byte[1000];
+        for (int i = 0; i < 8; i++) {
+            journal.append(payload).get();
+        }
+
+        BerbixException e = assertThrows(BerbixException.class, () -> journal.append(payload));
+        assertEquals("Outbox is full", e.getMessage());
+    }
+
+    @Test
+    void rejectsAppendsAfterClose() throws Exception {
+        OutboxJournal journal = open(2);
+        journal.close();
+
+        assertThrows(BerbixException.class, () -> journal.append(bytes("a")));
+    }
+
+    private OutboxJournal open(int maxSegments) throws IOException {
+        OutboxJournal journal = new OutboxJournal(directory, SEGMENT_SIZE, maxSegments);
+        opened.add(journal);
+        return journal;
+    }
+
+    private Path onlySegment() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            return stream.iterator().next();
+        }
+    }
+
+    private long segmentCount() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            long count = 0;
+            for (Path ignored : stream) {
+                count++;
+            }
+            return count;
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
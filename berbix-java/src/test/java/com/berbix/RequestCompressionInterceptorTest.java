@@ -0,0 +1,192 @@
+package com.berbix;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RequestCompressionInterceptorTest {
+    private final RequestCompressionInterceptor interceptor = new RequestCompressionInterceptor(RequestCompression.gzip(0));
+
+    @Test
+    void compressesLargeBodies() throws IOException {
+        FakeChain chain = new FakeChain(200);
+
+        assertEquals(200, interceptor.intercept(chain).code());
+        assertEquals(Arrays.asList("gzip"), chain.encodings);
+    }
+
+    @Test
+    void leavesSmallBodiesAlone() throws IOException {
+        RequestCompressionInterceptor large = new RequestCompressionInterceptor(RequestCompression.gzip(8192));
+        FakeChain chain = new FakeChain(200);
+
+        large.intercept(chain);
+
+        assertEquals(Arrays.asList((String) null), chain.encodings);
+    }
+
+    @Test
+    void unsupportedMediaTypeTurnsCompressionOff() throws IOException {
+        FakeChain chain = new FakeChain(415, 200, 200);
+
+        assertEquals(200, interceptor.intercept(chain).code());
+        interceptor.intercept(chain);
+
+        assertEquals(Arrays.asList("gzip", null, null), chain.encodings);
+    }
+
+    @Test
+    void badRequestAcceptedPlainTurnsCompressionOff() throws IOException {
+        FakeChain chain = new FakeChain(400, 200, 200);
+
+        assertEquals(200, interceptor.intercept(chain).code());
+        interceptor.intercept(chain);
+
+        assertEquals(Arrays.asList("gzip", null, null), chain.encodings);
+    }
+
+    @Test
+    void badRequestIsProbedPlainOnlyOnce() throws IOException {
+        // The plain body is refused too, so the 400 was about the request and compression stays on.
+        FakeChain chain = new FakeChain(400, 400, 400, 200);
+
+        assertEquals(400, interceptor.intercept(chain).code());
+        assertEquals(400, interceptor.intercept(chain).code());
+        interceptor.intercept(chain);
+
+        assertEquals(Arrays.asList("gzip", null, "gzip", "gzip"), chain.encodings);
+    }
+
+    @Test
+    void badRequestAfterASuccessIsNotResent() throws IOException {
+        FakeChain chain = new FakeChain(200, 400);
+
+        interceptor.intercept(chain);
+        assertEquals(400, interceptor.intercept(chain).code());
+
+        assertEquals(Arrays.asList("gzip", "gzip"), chain.encodings);
+    }
+
+    @Test
+    void requestsWithoutABodyAreNotTouched() throws IOException {
+        FakeChain chain = new FakeChain(200);
+        chain.request = new Request.Builder().url("https://api.berbix.com/v0/transactions").build();
+
+        interceptor.intercept(chain);
+
+        assertNull(chain.encodings.get(0));
+    }
+
+    private static class FakeChain implements Interceptor.Chain {
+        private final Deque<Integer> codes = new ArrayDeque<>();
+        final List<String> encodings = new ArrayList<>();
+        Request request = new Request.Builder()
+                .url("https://api.berbix.com/v0/images/upload")
+                .post(new JsonBody(4096))
+                .build();
+
+        FakeChain(Integer... codes) {
+            this.codes.addAll(Arrays.asList(codes));
+        }
+
+        @Override
+        public Request request() {
+            return request;
+        }
+
+        @Override
+        public Response proceed(Request request) {
+            encodings.add(request.header("Content-Encoding"));
+            return new Response.Builder()
+                    .request(request)
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(codes.remove())
+                    .message("")
+                    .body(ResponseBody.create("", null))
+                    .build();
+        }
+
+        @Override
+        public Connection connection() {
+            return null;
+        }
+
+        @Override
+        public Call call() {
+            return null;
+        }
+
+        @Override
+        public int connectTimeoutMillis() {
+            return 0;
+        }
+
+        @Override
+        public Interceptor.Chain withConnectTimeout(int timeout, TimeUnit unit) {
+            return this;
+        }
+
+        @Override
+        public int readTimeoutMillis() {
+            return 0;
+        }
+
+        @Override
+        public Interceptor.Chain withReadTimeout(int timeout, TimeUnit unit) {
+            return this;
+        }
+
+        @Override
+        public int writeTimeoutMillis() {
+            return 0;
+        }
+
+        @Override
+        public Interceptor.Chain withWriteTimeout(int timeout, TimeUnit unit) {
+            return this;
+        }
+    }
+
+    private static class JsonBody extends RequestBody {
+        private final byte[] bytes;
+
+        JsonBody(int size) {
+            this.bytes = new byte[size];
+            Arrays.fill(bytes, (byte) ' ');
+        }
+
+        @Override
+        public MediaType contentType() {
+            return null;
+        }
+
+        @Override
+        public long contentLength() {
+            return bytes.length;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            sink.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.berbix;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.Timeout;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestHedgerTest {
+    private final Request request = new Request.Builder().url("https://api.berbix.com/v0/transactions").build();
+    private final FakeCallFactory calls = new FakeCallFactory();
+    private RequestHedger hedger;
+
+    @AfterEach
+    void shutdown() {
+        if (hedger != null) {
+            hedger.shutdown();
+        }
+    }
+
+    @Test
+    void doesNotHedgeRequestsThatAnswerInTime() throws Exception {
+        hedger = new RequestHedger(HedgingPolicy.fixedDelay(1, TimeUnit.HOURS).withBudget(1), calls);
+
+        CompletableFuture<Response> result = hedger.execute(request, context(), 0);
+        Response response = response();
+        calls.await(1).respond(response);
+
+        assertSame(response, result.get(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.made.size());
+    }
+
+    @Test
+    void hedgesSlowRequestAndCancelsTheLoser() throws Exception {
+        hedger = new RequestHedger(HedgingPolicy.fixedDelay(0, TimeUnit.MILLISECONDS).withBudget(1), calls);
+
+        CompletableFuture<Response> result = hedger.execute(request, context(), 0);
+        FakeCall first = calls.await(1);
+        FakeCall second = calls.await(2);
+        Response response = response();
+        second.respond(response);
+
+        assertSame(response, result.get(5, TimeUnit.SECONDS));
+        assertTrue(first.cancelled);
+        assertFalse(second.cancelled);
+    }
+
+    @Test
+    void doesNotHedgeBeyondTheBudget() throws Exception {
+        hedger = new RequestHedger(HedgingPolicy.fixedDelay(0, TimeUnit.MILLISECONDS).withBudget(0.5), calls);
+
+        // The first request only earns half a hedge.
+        hedger.execute(request, context(), 0);
+        Thread.sleep(50);
+        assertEquals(1, calls.made.size());
+
+        hedger.execute(request, context(), 0);
+        calls.await(3);
+        Thread.sleep(50);
+        assertEquals(3, calls.made.size());
+    }
+
+    @Test
+    void failedAttemptWaitsForTheOtherOne() throws Exception {
+        hedger = new RequestHedger(HedgingPolicy.fixedDelay(0, TimeUnit.MILLISECONDS).withBudget(1), calls);
+
+        CompletableFuture<Response> result = hedger.execute(request, context(), 0);
+        FakeCall first = calls.await(1);
+        FakeCall second = calls.await(2);
+        first.fail(new IOException("Connection reset"));
+
+        assertFalse(result.isDone());
+        Response response = response();
+        second.respond(response);
+        assertSame(response, result.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void failsWhenTheOnlyAttemptFails() throws Exception {
+        hedger = new RequestHedger(HedgingPolicy.fixedDelay(1, TimeUnit.HOURS).withBudget(1), calls);
+
+        CompletableFuture<Response> result = hedger.execute(request, context(), 0);
+        calls.await(1).fail(new IOException("Connection reset"));
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertEquals("Connection reset", e.getCause().getMessage());
+        assertEquals(1, calls.made.size());
+    }
+
+    @Test
+    void failsOnceEveryAttemptHasFailed() throws Exception {
+        hedger = new RequestHedger(HedgingPolicy.fixedDelay(0, TimeUnit.MILLISECONDS).withBudget(1), calls);
+
+        CompletableFuture<Response> result = hedger.execute(request, context(), 0);
+        FakeCall first = calls.await(1);
+        FakeCall second = calls.await(2);
+        first.fail(new IOException("first"));
+        second.fail(new IOException("second"));
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertEquals("second", e.getCause().getMessage());
+    }
+
+    @Test
+    void cancelledContextFailsWithoutSending() {
+        hedger = new RequestHedger(HedgingPolicy.fixedDelay(1, TimeUnit.HOURS), calls);
+        CallContext context = context();
+        context.cancel();
+
+        CompletableFuture<Response> result = hedger.execute(request, context, 0);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof IOException);
+        assertEquals(0, calls.enqueued());
+    }
+
+    @Test
+    void cancellingTheContextCancelsEveryAttempt() throws Exception {
+        hedger = new RequestHedger(HedgingPolicy.fixedDelay(0, TimeUnit.MILLISECONDS).withBudget(1), calls);
+        CallContext context = context();
+
+        hedger.execute(request, context, 0);
+        FakeCall first = calls.await(1);
+        FakeCall second = calls.await(2);
+        context.cancel();
+
+        assertTrue(first.cancelled);
+        assertTrue(second.cancelled);
+    }
+
+    private static CallContext context() {
+        return new CallContext(0, null);
+    }
+
+    private Response response() {
+        return new Response.Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .build();
+    }
+
+    private static class FakeCallFactory implements Call.Factory {
+        final List<FakeCall> made = new CopyOnWriteArrayList<>();
+
+        @Override
+        public Call newCall(Request request) {
+            FakeCall call = new FakeCall(request);
+            made.add(call);
+            return call;
+        }
+
+        int enqueued() {
+            int count = 0;
+            for (FakeCall call : made) {
+                if (call.callback != null) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        FakeCall await(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (enqueued() < count && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertTrue(enqueued() >= count, "expected " + count + " calls");
+            return made.get(count - 1);
+        }
+    }
+
+    private static class FakeCall implements Call {
+        private final Request request;
+        private final Timeout timeout = new Timeout();
+        volatile Callback callback;
+        volatile boolean cancelled;
+
+        FakeCall(Request request) {
+            this.request = request;
+        }
+
+        void respond(Response response) throws IOException {
+            callback.onResponse(this, response);
+        }
+
+        void fail(IOException e) {
+            callback.onFailure(this, e);
+        }
+
+        @Override
+        public Request request() {
+            return request;
+        }
+
+        @Override
+        public Response execute() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void enqueue(Callback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public boolean isExecuted() {
+            return callback != null;
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return cancelled;
+        }
+
+        @Override
+        public Timeout timeout() {
+            return timeout;
+        }
+
+        @Override
+        public Call clone() {
+            return new FakeCall(request);
+        }
+    }
+}
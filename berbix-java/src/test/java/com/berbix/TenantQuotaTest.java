@@ -0,0 +1,47 @@
+package com.berbix;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TenantQuotaTest {
+
+    @Test
+    void queueIsFullOnceMaxQueuedCallsWait() {
+        TenantQuota quota = new TenantQuota(1, 1, 0);
+        CompletableFuture<String> running = new CompletableFuture<>();
+
+        quota.concurrency.submit(() -> running);
+        assertFalse(quota.queueFull());
+        quota.concurrency.submit(() -> CompletableFuture.completedFuture("queued"));
+        assertTrue(quota.queueFull());
+
+        running.complete("done");
+        assertFalse(quota.queueFull());
+        assertTrue(quota.idle());
+    }
+
+    @Test
+    void idleOnlyWithoutRunningOrQueuedCalls() {
+        TenantQuota quota = new TenantQuota(1, 1, 0);
+        CompletableFuture<String> running = new CompletableFuture<>();
+
+        quota.concurrency.submit(() -> running);
+
+        assertFalse(quota.idle());
+        assertTrue(new TenantQuota(0, 1, 10).idle());
+    }
+
+    @Test
+    void rateIsLimitedAfterTheBurst() {
+        TenantQuota quota = new TenantQuota(0, 1, 1);
+
+        assertEquals(0, quota.tryAcquire());
+        assertTrue(quota.tryAcquire() > 0);
+        assertFalse(quota.queueFull());
+    }
+}
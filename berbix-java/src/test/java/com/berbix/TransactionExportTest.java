@@ -0,0 +1,202 @@
+package com.berbix;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransactionExportTest {
+    private static final int COUNT = 10;
+
+    @TempDir
+    Path directory;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void writesOneLinePerTransactionInTokenOrder() throws Exception {
+        FakeApi api = new FakeApi();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        TransactionExport.Result result = new TransactionExport.Builder(api).maxConcurrency(3).build().run(tokens(), output);
+
+        assertEquals(ids(0, COUNT), lineIds(new String(output.toByteArray(), StandardCharsets.UTF_8)));
+        assertEquals(COUNT, result.records);
+        assertEquals(COUNT, result.exported);
+    }
+
+    @Test
+    void writesDatesAsIsoStrings() throws Exception {
+        FakeApi api = new FakeApi();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        new TransactionExport.Builder(api).build().run(tokens().limit(1), output);
+
+        JsonNode line = objectMapper.readTree(new String(output.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals("2021-03-04T05:06:07Z", line.get("created_at").asText());
+    }
+
+    @Test
+    void resumesAfterTheLastCheckpoint() throws Exception {
+        Path output = directory.resolve("export.ndjson");
+        Path checkpoint = directory.resolve("export.checkpoint");
+        FakeApi failing = new FakeApi(5);
+
+        assertThrows(BerbixException.class, () -> export(failing, checkpoint, false).run(tokens(), output));
+
+        FakeApi api = new FakeApi();
+        TransactionExport.Result result = export(api, checkpoint, false).run(tokens(), output);
+
+        // Checkpoints fell after the second and fourth transactions, so the fifth is fetched again.
+        assertEquals(4, result.resumedFrom);
+        assertEquals(ids(4, COUNT), api.fetched);
+        assertEquals(COUNT, result.records);
+        assertEquals(ids(0, COUNT), lineIds(new String(Files.readAllBytes(output), StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void resumingGzipOutputCutsOffTheTornMember() throws Exception {
+        Path output = directory.resolve("export.ndjson.gz");
+        Path checkpoint = directory.resolve("export.checkpoint");
+
+        assertThrows(BerbixException.class, () -> export(new FakeApi(5), checkpoint, true).run(tokens(), output));
+        // A crash in the middle of writing leaves part of a gzip member behind the checkpoint.
+        Files.write(output, new byte[]{0x1f, (byte) 0x8b, 8, 0, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        export(new FakeApi(), checkpoint, true).run(tokens(), output);
+
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(output))) {
+            assertEquals(ids(0, COUNT), lineIds(read(in)));
+        }
+    }
+
+    @Test
+    void rejectsOutputShorterThanItsCheckpoint() throws Exception {
+        Path output = directory.resolve("export.ndjson");
+        Path checkpoint = directory.resolve("export.checkpoint");
+        export(new FakeApi(), checkpoint, false).run(tokens(), output);
+        Files.write(output, new byte[0]);
+
+        assertThrows(BerbixException.class, () -> export(new FakeApi(), checkpoint, false).run(tokens(), output));
+    }
+
+    @Test
+    void failedTransactionsAreReportedAndNotRetriedOnResume() throws Exception {
+        Path output = directory.resolve("export.ndjson");
+        Path checkpoint = directory.resolve("export.checkpoint");
+        List<Long> failed = new ArrayList<>();
+        TransactionExport.FailureHandler handler = (index, tokens, error) -> failed.add(index);
+
+        TransactionExport.Result result = new TransactionExport.Builder(new FakeApi(3))
+                .checkpoint(checkpoint)
+                .checkpointEvery(2)
+                .onFailure(handler)
+                .build()
+                .run(tokens(), output);
+
+        assertEquals(1, result.failed);
+        assertEquals(COUNT - 1, result.exported);
+        assertEquals(1, failed.size());
+        assertEquals(3L, (long) failed.get(0));
+
+        FakeApi api = new FakeApi();
+        TransactionExport.Result resumed = export(api, checkpoint, false).run(tokens(), output);
+        assertTrue(api.fetched.isEmpty());
+        assertEquals(1, resumed.failed);
+    }
+
+    private static TransactionExport export(BerbixApi api, Path checkpoint, boolean gzip) {
+        return new TransactionExport.Builder(api)
+                .maxConcurrency(1)
+                .gzip(gzip)
+                .checkpoint(checkpoint)
+                .checkpointEvery(2)
+                .build();
+    }
+
+    private static Stream<Tokens> tokens() {
+        return LongStream.range(0, COUNT).mapToObj(id -> {
+            Tokens tokens = new Tokens();
+            tokens.transactionId = id;
+            return tokens;
+        });
+    }
+
+    private static List<Long> ids(long from, long to) {
+        return LongStream.range(from, to).boxed().collect(Collectors.toList());
+    }
+
+    private List<Long> lineIds(String lines) throws IOException {
+        List<Long> ids = new ArrayList<>();
+        for (String line : lines.split("\n")) {
+            if (!line.isEmpty()) {
+                ids.add(objectMapper.readTree(line).get("id").asLong());
+            }
+        }
+        return ids;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.append(line).append('\n');
+            }
+        }
+        return lines.toString();
+    }
+
+    private static class FakeApi extends BerbixApi {
+        private final Set<Long> failing = new HashSet<>();
+        final List<Long> fetched = new CopyOnWriteArrayList<>();
+
+        FakeApi(long... failing) {
+            super(new Berbix.BerbixOptions("secret", "https://api.berbix.com"));
+            for (long id : failing) {
+                this.failing.add(id);
+            }
+        }
+
+        @Override
+        public CompletableFuture<Transaction> fetchTransactionAsync(Tokens tokens, CallOptions callOptions) {
+            fetched.add(tokens.transactionId);
+            CompletableFuture<Transaction> future = new CompletableFuture<>();
+            if (failing.contains(tokens.transactionId)) {
+                future.completeExceptionally(new BerbixException("fetch failed"));
+                return future;
+            }
+            Transaction transaction = new Transaction();
+            transaction.id = tokens.transactionId;
+            transaction.createdAt = ZonedDateTime.of(2021, 3, 4, 5, 6, 7, 0, ZoneOffset.UTC);
+            future.complete(transaction);
+            return future;
+        }
+    }
+}